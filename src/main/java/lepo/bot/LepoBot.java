@@ -1,14 +1,25 @@
 package lepo.bot;
 
 
+import lepo.bot.audio.AudioCatalog;
 import lepo.bot.audio.AudioFiles;
-import lepo.bot.audio.AudioPlayerLoadResultHandler;
-import lepo.bot.audio.AudioPlayerSendHandler;
+import lepo.bot.audio.AudioPlayerRegistry;
+import lepo.bot.audio.LibraryManifest;
+import lepo.bot.audio.LibraryWatcher;
+import lepo.bot.audio.QueueLimits;
+import lepo.bot.audio.ingest.LibraryIngest;
+import lepo.bot.audio.tts.FloweryTtsClient;
+import lepo.bot.audio.tts.TtsDiskCache;
+import lepo.bot.audio.tts.TtsPrefetcher;
+import lepo.bot.audio.tts.TtsProviderChain;
 import lepo.bot.event.guildvoiceupdate.GuildVoiceUpdateEventListener;
 import lepo.bot.event.guildvoiceupdate.SkipBotEvent;
+import lepo.bot.filemanager.ChannelNameNormalizer;
 import lepo.bot.filemanager.FileService;
+import lepo.bot.scheduler.DeferredTaskService;
+import lepo.bot.scheduler.GuildMailbox;
 import lepo.bot.slashcommand.Command;
-import lepo.bot.slashcommand.SlashCommands;
+import lepo.bot.slashcommand.InteractionRouter;
 import lepo.bot.slashcommand.help.HelpCommand;
 import lepo.bot.slashcommand.play.Play1;
 import lepo.bot.slashcommand.play.Play2;
@@ -23,6 +34,7 @@ import net.dv8tion.jda.api.JDABuilder;
 import net.dv8tion.jda.api.entities.Activity;
 import net.dv8tion.jda.api.entities.channel.concrete.VoiceChannel;
 import net.dv8tion.jda.api.events.session.ReadyEvent;
+import net.dv8tion.jda.api.hooks.EventListener;
 import net.dv8tion.jda.api.hooks.ListenerAdapter;
 import net.dv8tion.jda.api.requests.GatewayIntent;
 import net.dv8tion.jda.api.requests.restaction.CommandListUpdateAction;
@@ -36,13 +48,18 @@ import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
 import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Objects;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.Optional;
+import java.util.stream.Collectors;
 
+import static lepo.bot.event.buttoninteraction.Play.PLAY_BUTTON;
 import static lepo.bot.slashcommand.help.HelpCommand.HELP_COMMAND;
 import static lepo.bot.slashcommand.help.HelpCommand.HELP_DESCRIPTION;
 import static lepo.bot.slashcommand.play.Play1.*;
@@ -61,6 +78,9 @@ import static lepo.bot.slashcommand.voicechannelmanager.VoiceChannelManagerComma
 @PropertySource("classpath:application-${spring.profiles.active}.properties")
 public class LepoBot extends ListenerAdapter {
 
+    private static final long LIBRARY_QUIET_PERIOD_MS = 2000;
+    private static final int GUILD_MAILBOX_THREADS = 4;
+
     @Value("${bot.token}")
     private String token;
     @Value("${bot.admin.id}")
@@ -77,12 +97,42 @@ public class LepoBot extends ListenerAdapter {
     private String customAudioPath;
     @Value("${bot.volume.directory}")
     private String volumeDirectory;
+    @Value("${bot.excludedChannels.reload:false}")
+    private boolean reloadExcludedChannels;
+    @Value("${bot.opusFrameCache.budgetMb:8}")
+    private long opusFrameCacheBudgetMb;
+    @Value("${bot.ingest.enabled:true}")
+    private boolean ingestEnabled;
+    @Value("${bot.ingest.ffmpeg:ffmpeg}")
+    private String ffmpeg;
+    @Value("${bot.library.watch:true}")
+    private boolean watchLibrary;
+    @Value("${bot.ttsCache.diskMb:64}")
+    private long ttsCacheDiskMb;
+    @Value("${bot.ttsPrefetch.perMinute:10}")
+    private int ttsPrefetchPerMinute;
+    @Value("${bot.tts.voice:d93be03a-bc71-52fd-8e51-1e5cf24cf621}")
+    private String ttsVoice;
+    @Value("${bot.tts.providers:" + FloweryTtsClient.FLOWERY_API_URL + "}")
+    private String[] ttsProviderUrls;
+    @Value("${bot.tts.timeoutMs:4000}")
+    private long ttsTimeoutMs;
+    @Value("${bot.queue.capacity:20}")
+    private int queueCapacity;
+    @Value("${bot.queue.dropPolicy:DROP_NEWEST}")
+    private QueueLimits.DropPolicy queueDropPolicy;
+    @Value("${bot.queue.ttsPerMinute:6}")
+    private int queueTtsPerMinute;
 
     private JDA jda;
-    private ScheduledExecutorService scheduler;
-    private AudioPlayerSendHandler audioPlayerSendHandler;
-    private AudioPlayerLoadResultHandler audioPlayerLoadResultHandler;
-    private AudioFiles audioFiles;
+    private DeferredTaskService deferredTaskService;
+    private GuildMailbox guildMailbox;
+    private AudioPlayerRegistry audioPlayerRegistry;
+    private TtsProviderChain ttsProviderChain;
+    private TtsPrefetcher ttsPrefetcher;
+    private AudioCatalog audioCatalog;
+    private LibraryManifest libraryManifest;
+    private LibraryWatcher libraryWatcher;
     private PlayAutocompleteCommand playAutoCommand;
     private Play1 play1;
     private Play2 play2;
@@ -91,49 +141,137 @@ public class LepoBot extends ListenerAdapter {
     private SendLinkCommand sendLinkCommand;
     private Map<String, Command> commandMap;
     private FileService fileService;
+    private ChannelNameNormalizer channelNameNormalizer;
     private HelpCommand helpCommand;
     private TtsCommand ttsCommand;
 
     @Bean
     public Path pathAndFileName() {
+        return Path.of(volumeDirectory, "excluded-voice-channel-ids.txt");
+    }
+
+    /**
+     * Name based list used before channels were excluded by ID, migrated on first ready.
+     */
+    private Path legacyPathAndFileName() {
         return Path.of(volumeDirectory, "excluded-voice-channels.txt");
     }
 
+    /**
+     * Every clip of the library in one file, memory mapped for playback.
+     */
+    private Path clipPackPath() {
+        return Path.of(volumeDirectory, "clips.pack");
+    }
+
+    /**
+     * Normalizes the library to pass-through opus, see {@link LibraryIngest}.
+     */
+    private AudioFiles ingest(AudioFiles audioFiles) {
+        if (!ingestEnabled) {
+            return audioFiles;
+        }
+        return new LibraryIngest(Path.of(volumeDirectory, "normalized"), Path.of(volumeDirectory, "ingest-report.tsv"), ffmpeg, libraryManifest)
+                .ingest(audioFiles);
+    }
+
+    /**
+     * Lists and ingests the library, reading only what changed since the manifest was saved.
+     */
+    private AudioFiles loadLibrary() {
+        AudioFiles audioFiles = libraryManifest.listAudioFiles(path, welcomeAudioPath, goodbyeAudioPath, customAudioPath);
+        AudioFiles ingestedAudioFiles = ingest(audioFiles);
+        libraryManifest.save(audioFiles, ingestedAudioFiles);
+        return ingestedAudioFiles;
+    }
+
+    /**
+     * Reloads the catalog whenever a clip is added, removed, renamed or replaced in the library directories.
+     */
+    private void watchLibrary() {
+        if (!watchLibrary) {
+            return;
+        }
+        try {
+            this.libraryWatcher = new LibraryWatcher(Arrays.asList(path, welcomeAudioPath, goodbyeAudioPath, customAudioPath),
+                    () -> audioCatalog.reload(loadLibrary()), LIBRARY_QUIET_PERIOD_MS);
+            libraryWatcher.start();
+        } catch (IOException e) {
+            log.info("Cannot watch the library, new clips need a restart: {}", e.getMessage());
+        }
+    }
+
     @PostConstruct
     public void init() {
         log.info("Initializing LepoBot");
-        this.scheduler = Executors.newSingleThreadScheduledExecutor();
-        this.audioPlayerSendHandler = new AudioPlayerSendHandler();
-        this.audioPlayerLoadResultHandler = new AudioPlayerLoadResultHandler(audioPlayerSendHandler);
-        this.audioFiles = new AudioFiles(path, welcomeAudioPath, goodbyeAudioPath, customAudioPath);
-        this.playAutoCommand = new PlayAutocompleteCommand(audioPlayerLoadResultHandler, audioPlayerSendHandler, audioFiles.getPlayAudioFileList(), fileService);
-        this.play1 = new Play1(audioPlayerLoadResultHandler, audioPlayerSendHandler, audioFiles.getPlayAudioFileList(), fileService);
-        this.play2 = new Play2(audioPlayerLoadResultHandler, audioPlayerSendHandler, audioFiles.getPlayAudioFileList(), fileService);
-        this.play3 = new Play3(audioPlayerLoadResultHandler, audioPlayerSendHandler, audioFiles.getPlayAudioFileList(), fileService);
-        this.fileService = new FileService(pathAndFileName());
-        this.voiceChannelManagerAdapterCommand = new VoiceChannelManagerCommand(fileService, adminId, powerUserId);
+        this.deferredTaskService = new DeferredTaskService();
+        this.guildMailbox = new GuildMailbox(deferredTaskService, GUILD_MAILBOX_THREADS);
+        this.channelNameNormalizer = new ChannelNameNormalizer();
+        this.fileService = new FileService(pathAndFileName(), legacyPathAndFileName(), channelNameNormalizer, reloadExcludedChannels);
+        this.ttsProviderChain = new TtsProviderChain(Arrays.stream(ttsProviderUrls)
+                .map(String::trim)
+                .filter(url -> !url.isEmpty())
+                .map(url -> new FloweryTtsClient(url, Duration.ofMillis(ttsTimeoutMs)))
+                .collect(Collectors.toList()), Duration.ofMillis(ttsTimeoutMs));
+        this.audioPlayerRegistry = new AudioPlayerRegistry(clipPackPath(), opusFrameCacheBudgetMb, ttsVoice,
+                new TtsDiskCache(Path.of(volumeDirectory, "tts"), ttsCacheDiskMb * 1024 * 1024), ttsProviderChain, Duration.ofMillis(ttsTimeoutMs),
+                new QueueLimits(queueCapacity, queueDropPolicy, queueTtsPerMinute), guildMailbox);
+        this.ttsPrefetcher = new TtsPrefetcher(audioPlayerRegistry.getCachedTtsSourceManager(), audioPlayerRegistry.getAudioPlayerManager(), ttsPrefetchPerMinute);
+        this.libraryManifest = LibraryManifest.load(Path.of(volumeDirectory, "library.manifest"));
+        this.audioCatalog = AudioCatalog.from(loadLibrary(), libraryManifest);
+        this.playAutoCommand = new PlayAutocompleteCommand(audioPlayerRegistry, audioCatalog, fileService, deferredTaskService);
+        audioPlayerRegistry.getPackedAudioSourceManager().pack(audioCatalog);
+        this.audioCatalog.addListener(playAutoCommand);
+        this.audioCatalog.addListener(audioPlayerRegistry.getPackedAudioSourceManager());
+        this.audioCatalog.addListener(audioPlayerRegistry.getAudioTrackCache());
+        this.audioCatalog.addListener(audioPlayerRegistry.getOpusFrameCache());
+        audioPlayerRegistry.getAudioTrackCache().preload(audioCatalog);
+        audioPlayerRegistry.getOpusFrameCache().preload(audioCatalog);
+        watchLibrary();
+        this.play1 = new Play1(audioPlayerRegistry, audioCatalog, fileService, deferredTaskService);
+        this.play2 = new Play2(audioPlayerRegistry, audioCatalog, fileService, deferredTaskService);
+        this.play3 = new Play3(audioPlayerRegistry, audioCatalog, fileService, deferredTaskService);
+        this.voiceChannelManagerAdapterCommand = new VoiceChannelManagerCommand(fileService, deferredTaskService, adminId, powerUserId);
+        this.sendLinkCommand = new SendLinkCommand(adminId, deferredTaskService);
+        this.helpCommand = new HelpCommand(helpCommands(), deferredTaskService);
+        this.ttsCommand = new TtsCommand(audioPlayerRegistry, fileService, deferredTaskService);
         this.commandMap = setCommandsMap();
-        this.sendLinkCommand = new SendLinkCommand(adminId);
-        this.helpCommand = new HelpCommand(helpCommands());
-
-        this.ttsCommand = new TtsCommand(audioPlayerSendHandler, audioPlayerLoadResultHandler, fileService);
         //setup bot
         this.jda = createLepoBot();
         setCommandsInJda(this.jda);
     }
 
+    @PreDestroy
+    public void shutdown() {
+        log.info("Shutting down LepoBot");
+        Optional.ofNullable(libraryWatcher).ifPresent(watcher -> {
+            try {
+                watcher.close();
+            } catch (IOException e) {
+                log.info("Cannot stop the library watcher: {}", e.getMessage());
+            }
+        });
+        fileService.close();
+        deferredTaskService.shutdown();
+        guildMailbox.shutdown();
+        ttsPrefetcher.shutdown();
+        ttsProviderChain.shutdown();
+    }
+
     @Override
     public void onReady(@NotNull ReadyEvent event) {
+        fileService.migrateLegacyNames(event.getJDA().getGuilds());
         disconnectIfAloneInVoiceChannel();
     }
 
 
     /**
-     * scheduler: To manage connection delays.
-     * audioPlayerSendHandler: Manager for the audio player.
-     * audioPlayerLoadResultHandler: Used for playing audio files.
-     * audioFiles: Defines the list of audio files used by the bot.
-     * setCommands: to set slash commands
+     * deferredTaskService: Shared timer for connection delays and reply cleanup.
+     * guildMailbox: Handles the voice events of each guild in order, in parallel across guilds.
+     * audioPlayerRegistry: Per-guild audio players, released when the bot leaves voice.
+     * ttsPrefetcher: Renders the greetings of likely joiners into the TTS cache ahead of time.
+     * audioCatalog: Indexed clips of the library used by the bot.
+     * interactionRouter: the only interaction listener, dispatching to one instance per command.
      *
      * @return An instance of JDA configured for the Lepo bot.
      */
@@ -145,16 +283,12 @@ public class LepoBot extends ListenerAdapter {
                 .enableCache(CacheFlag.VOICE_STATE)
                 //.setAutoReconnect(false) //testing with this disabled
                 //.setStatus(OnlineStatus.DO_NOT_DISTURB)
-                .addEventListeners(new SkipBotEvent(new GuildVoiceUpdateEventListener(audioFiles, scheduler, audioPlayerSendHandler, audioPlayerLoadResultHandler, fileService)))
-                .addEventListeners(new SlashCommands(commandMap))
-                .addEventListeners(new PlayAutocompleteCommand(audioPlayerLoadResultHandler, audioPlayerSendHandler, audioFiles.getPlayAudioFileList(), fileService))
-                .addEventListeners(new Play1(audioPlayerLoadResultHandler, audioPlayerSendHandler, audioFiles.getPlayAudioFileList(), fileService))
-                .addEventListeners(new Play2(audioPlayerLoadResultHandler, audioPlayerSendHandler, audioFiles.getPlayAudioFileList(), fileService))
-                .addEventListeners(new Play3(audioPlayerLoadResultHandler, audioPlayerSendHandler, audioFiles.getPlayAudioFileList(), fileService))
-                .addEventListeners(new VoiceChannelManagerCommand(fileService, adminId, powerUserId))
-                .addEventListeners(new SendLinkCommand(adminId))
-                .addEventListeners(new HelpCommand(helpCommands()))
-                .addEventListeners(new TtsCommand(audioPlayerSendHandler, audioPlayerLoadResultHandler, fileService))
+                .addEventListeners(this)
+                .addEventListeners(audioPlayerRegistry)
+                .addEventListeners(ttsPrefetcher)
+                .addEventListeners(channelNameNormalizer)
+                .addEventListeners(new SkipBotEvent(new GuildVoiceUpdateEventListener(audioCatalog, deferredTaskService, guildMailbox, audioPlayerRegistry, fileService)))
+                .addEventListeners(new InteractionRouter(commandMap, setAutocompleteMap(), setComponentMap(), deferredTaskService))
                 //zucca: "\uD83C\uDF83/help\uD83C\uDF83"
                 //babbo natale: "\uD83C\uDF85/help\uD83C\uDF85"
                 .setActivity(Activity.customStatus("/help"))
@@ -183,14 +317,28 @@ public class LepoBot extends ListenerAdapter {
 
     private Map<String, Command> setCommandsMap() {
         return Map.of(
-                PLAY_AUDIO, new PlayAutocompleteCommand(audioPlayerLoadResultHandler, audioPlayerSendHandler, audioFiles.getPlayAudioFileList(), fileService),
-                PLAY1_COMMAND, new Play1(audioPlayerLoadResultHandler, audioPlayerSendHandler, audioFiles.getPlayAudioFileList(), fileService),
-                PLAY2_COMMAND, new Play2(audioPlayerLoadResultHandler, audioPlayerSendHandler, audioFiles.getPlayAudioFileList(), fileService),
-                PLAY3_COMMAND, new Play3(audioPlayerLoadResultHandler, audioPlayerSendHandler, audioFiles.getPlayAudioFileList(), fileService),
-                VOICE_CHANNEL_MANAGER_COMMAND, new VoiceChannelManagerCommand(fileService, adminId, powerUserId),
-                SEND_LINK_COMMAND, new SendLinkCommand(adminId),
-                HELP_COMMAND, new HelpCommand(helpCommands()),
-                TTS_COMMAND, new TtsCommand(audioPlayerSendHandler, audioPlayerLoadResultHandler, fileService)
+                PLAY_AUDIO, playAutoCommand,
+                PLAY1_COMMAND, play1,
+                PLAY2_COMMAND, play2,
+                PLAY3_COMMAND, play3,
+                VOICE_CHANNEL_MANAGER_COMMAND, voiceChannelManagerAdapterCommand,
+                SEND_LINK_COMMAND, sendLinkCommand,
+                HELP_COMMAND, helpCommand,
+                TTS_COMMAND, ttsCommand
+        );
+    }
+
+    private Map<String, EventListener> setAutocompleteMap() {
+        return Map.of(PLAY_AUDIO, playAutoCommand);
+    }
+
+    /**
+     * Every play button is handled by the same instance, whichever list it was shown in.
+     */
+    private Map<String, EventListener> setComponentMap() {
+        return Map.of(
+                PLAY_BUTTON, play1,
+                SELECT_VOICE_CHANNEL, voiceChannelManagerAdapterCommand
         );
     }
 
@@ -224,10 +372,26 @@ public class LepoBot extends ListenerAdapter {
                         && guild.getSelfMember().getVoiceState().getChannel() instanceof VoiceChannel
                         && guild.getSelfMember().getVoiceState().getChannel().getMembers().size() == 1)
                 .map(guild -> guild.getSelfMember().getVoiceState().getChannel())
-                .forEach(channel -> {
-                    log.info("Bot was alone for 6 hours in {}, disconnecting", fileService.getChannelNameWithoutEmoji(channel.getName()));
+                .forEach(channel -> guildMailbox.execute(channel.getGuild().getIdLong(), () -> {
+                    log.info("Bot was alone for 6 hours in {}, disconnecting", fileService.getChannelNameWithoutEmoji(channel));
                     channel.getGuild().getAudioManager().closeAudioConnection();
-                });
+                }));
+    }
+
+    /**
+     * Hourly metrics of the shared components.
+     */
+    @Scheduled(fixedRate = 3600000)
+    private void logMetrics() {
+        deferredTaskService.logMetrics();
+        guildMailbox.logMetrics();
+        playAutoCommand.logCacheMetrics();
+        audioPlayerRegistry.getAudioTrackCache().logMetrics();
+        audioPlayerRegistry.getOpusFrameCache().logMetrics();
+        audioPlayerRegistry.getCachedTtsSourceManager().logMetrics();
+        ttsPrefetcher.logMetrics();
+        ttsProviderChain.logMetrics();
+        audioPlayerRegistry.logMetrics();
     }
 
     /**
@@ -0,0 +1,190 @@
+package lepo.bot.audio;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Index of every clip of the library, built from {@link AudioFiles} and the {@link LibraryManifest}.
+ * Clips are kept in hash indexes by category and id, so lookups from buttons,
+ * autocomplete and greetings do not depend on the size of the library;
+ * per category lists keep the {@link AudioFiles} order for paging.
+ * On reload only the categories whose clips changed get new indexes, the others are shared with the previous
+ * ones; readers always see a complete index and {@link AudioCatalogListener}s are notified afterwards.
+ */
+@Slf4j
+public class AudioCatalog {
+
+    private static final int OPUS_SAMPLE_RATE = 48000;
+    private static final int OGG_TAIL_SIZE = 65536;
+    private static final byte[] OGG_CAPTURE_PATTERN = "OggS".getBytes(StandardCharsets.US_ASCII);
+
+    private final List<AudioCatalogListener> listeners = new CopyOnWriteArrayList<>();
+    private final LibraryManifest libraryManifest;
+    private volatile Index index;
+
+    private AudioCatalog(LibraryManifest libraryManifest, Index index) {
+        this.libraryManifest = libraryManifest;
+        this.index = index;
+    }
+
+    /**
+     * @param audioFiles      the clips of the library
+     * @param libraryManifest source of the clip sizes and durations, so unchanged clips are not read
+     */
+    public static AudioCatalog from(AudioFiles audioFiles, LibraryManifest libraryManifest) {
+        return new AudioCatalog(libraryManifest, toIndex(audioFiles, libraryManifest));
+    }
+
+    public Optional<AudioClip> find(AudioCategory category, String id) {
+        return Optional.ofNullable(index.clipsById.get(category).get(id));
+    }
+
+    public List<AudioClip> getClips(AudioCategory category) {
+        return index.clipsByCategory.get(category);
+    }
+
+    public void addListener(AudioCatalogListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Applies the clips added, removed or replaced in the given files and notifies the listeners if anything changed.
+     * Unchanged clips are described from the {@link LibraryManifest} without reading them.
+     */
+    public synchronized void reload(AudioFiles audioFiles) {
+        Index current = this.index;
+        Index updated = current;
+        for (AudioCategory category : AudioCategory.values()) {
+            List<AudioClip> clips = toClips(category, filesOf(audioFiles, category), libraryManifest);
+            if (!clips.equals(current.clipsByCategory.get(category))) {
+                logChanges(category, current.clipsById.get(category), clips);
+                updated = updated.with(category, clips);
+            }
+        }
+        if (updated == current) {
+            return;
+        }
+        this.index = updated;
+        listeners.forEach(listener -> listener.onCatalogChanged(this));
+    }
+
+    private static Index toIndex(AudioFiles audioFiles, LibraryManifest libraryManifest) {
+        Map<AudioCategory, List<AudioClip>> clipsByCategory = new EnumMap<>(AudioCategory.class);
+        for (AudioCategory category : AudioCategory.values()) {
+            clipsByCategory.put(category, toClips(category, filesOf(audioFiles, category), libraryManifest));
+        }
+        clipsByCategory.forEach((category, clips) -> log.info("Catalog {}: {} clips", category, clips.size()));
+        return new Index(clipsByCategory);
+    }
+
+    private static List<File> filesOf(AudioFiles audioFiles, AudioCategory category) {
+        switch (category) {
+            case PLAY:
+                return audioFiles.getPlayAudioFileList();
+            case WELCOME:
+                return audioFiles.getWelcomeAudioFileList();
+            case GOODBYE:
+                return audioFiles.getGoodbyeAudioFileList();
+            default:
+                return audioFiles.getCustomAudioFileList();
+        }
+    }
+
+    private static void logChanges(AudioCategory category, Map<String, AudioClip> previous, List<AudioClip> clips) {
+        long added = clips.stream().filter(audioClip -> !previous.containsKey(audioClip.getId())).count();
+        long replaced = clips.stream().filter(audioClip -> previous.containsKey(audioClip.getId()) && !previous.get(audioClip.getId()).equals(audioClip)).count();
+        long removed = previous.size() - (clips.size() - added);
+        log.info("Catalog {}: {} added, {} removed, {} replaced, {} clips", category, added, removed, replaced, clips.size());
+    }
+
+    private static List<AudioClip> toClips(AudioCategory category, List<File> files, LibraryManifest libraryManifest) {
+        return Collections.unmodifiableList(files.stream()
+                .map(file -> toClip(category, libraryManifest.describe(file)))
+                .collect(Collectors.toList()));
+    }
+
+    private static AudioClip toClip(AudioCategory category, LibraryManifest.Entry entry) {
+        String id = getFileNameWithoutExtension(new File(entry.getPath()).getName());
+        return new AudioClip(id, category, entry.getPath(), id, entry.getSize(), entry.getLastModified(), entry.getDurationMs(), entry.getLoudnessLufs());
+    }
+
+    static String getFileNameWithoutExtension(String input) {
+        return input.substring(0, input.indexOf('.'));
+    }
+
+    /**
+     * Reads the granule position of the last Ogg page, which for Opus is the number of 48 kHz samples.
+     *
+     * @param file an Ogg Opus file
+     * @return the duration in milliseconds or -1 when it cannot be read
+     */
+    static long readDurationMs(File file) {
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r")) {
+            int tailSize = (int) Math.min(OGG_TAIL_SIZE, randomAccessFile.length());
+            byte[] tail = new byte[tailSize];
+            randomAccessFile.seek(randomAccessFile.length() - tailSize);
+            randomAccessFile.readFully(tail);
+            for (int i = tailSize - 14; i >= 0; i--) {
+                if (tail[i] == OGG_CAPTURE_PATTERN[0] && tail[i + 1] == OGG_CAPTURE_PATTERN[1]
+                        && tail[i + 2] == OGG_CAPTURE_PATTERN[2] && tail[i + 3] == OGG_CAPTURE_PATTERN[3]) {
+                    long granulePosition = 0;
+                    for (int b = 7; b >= 0; b--) {
+                        granulePosition = (granulePosition << 8) | (tail[i + 6 + b] & 0xFF);
+                    }
+                    return granulePosition < 0 ? -1 : granulePosition * 1000 / OPUS_SAMPLE_RATE;
+                }
+            }
+        } catch (IOException e) {
+            log.info("Cannot read duration of {}: {}", file.getName(), e.getMessage());
+        }
+        return -1;
+    }
+
+    private static final class Index {
+
+        private final Map<AudioCategory, List<AudioClip>> clipsByCategory;
+        private final Map<AudioCategory, Map<String, AudioClip>> clipsById;
+
+        private Index(Map<AudioCategory, List<AudioClip>> clipsByCategory) {
+            this.clipsByCategory = clipsByCategory;
+            this.clipsById = new EnumMap<>(AudioCategory.class);
+            clipsByCategory.forEach((category, clips) -> clipsById.put(category, byId(clips)));
+        }
+
+        private Index(Map<AudioCategory, List<AudioClip>> clipsByCategory, Map<AudioCategory, Map<String, AudioClip>> clipsById) {
+            this.clipsByCategory = clipsByCategory;
+            this.clipsById = clipsById;
+        }
+
+        /**
+         * @return a copy of this index where only the given category is indexed again
+         */
+        private Index with(AudioCategory category, List<AudioClip> clips) {
+            Map<AudioCategory, List<AudioClip>> updatedClipsByCategory = new EnumMap<>(clipsByCategory);
+            Map<AudioCategory, Map<String, AudioClip>> updatedClipsById = new EnumMap<>(clipsById);
+            updatedClipsByCategory.put(category, clips);
+            updatedClipsById.put(category, byId(clips));
+            return new Index(updatedClipsByCategory, updatedClipsById);
+        }
+
+        private static Map<String, AudioClip> byId(List<AudioClip> clips) {
+            return clips.stream()
+                    .collect(Collectors.toMap(AudioClip::getId, Function.identity(), (first, duplicate) -> first, LinkedHashMap::new));
+        }
+
+    }
+
+}
@@ -0,0 +1,10 @@
+package lepo.bot.audio;
+
+/**
+ * Notified after the clips of an {@link AudioCatalog} changed, so derived indexes and caches can be rebuilt.
+ */
+public interface AudioCatalogListener {
+
+    void onCatalogChanged(AudioCatalog audioCatalog);
+
+}
@@ -0,0 +1,13 @@
+package lepo.bot.audio;
+
+/**
+ * The library directories a clip can come from.
+ */
+public enum AudioCategory {
+
+    PLAY,
+    WELCOME,
+    GOODBYE,
+    CUSTOM
+
+}
@@ -0,0 +1,24 @@
+package lepo.bot.audio;
+
+import lombok.Value;
+
+/**
+ * Immutable entry of the {@link AudioCatalog}.
+ * The id is the file name without extension and is unique within a category;
+ * the duration is -1 when it could not be read from the file.
+ * Size and modification time tell versions of the same file apart, so caches keyed by clip
+ * never serve a file that was replaced. The loudness is NaN when it was never measured, see {@link Loudness}.
+ */
+@Value
+public class AudioClip {
+
+    String id;
+    AudioCategory category;
+    String path;
+    String displayName;
+    long size;
+    long lastModified;
+    long durationMs;
+    double loudnessLufs;
+
+}
@@ -38,6 +38,16 @@ public class AudioFiles {
         this.customAudioFileList = setCustomAudioFileList(customAudioPath);
     }
 
+    /**
+     * Library already listed elsewhere, e.g. the clips produced by the ingest stage.
+     */
+    public AudioFiles(List<File> playAudioFileList, List<File> welcomeAudioFileList, List<File> goodbyeAudioFileList, List<File> customAudioFileList) {
+        this.playAudioFileList = playAudioFileList;
+        this.welcomeAudioFileList = welcomeAudioFileList;
+        this.goodbyeAudioFileList = goodbyeAudioFileList;
+        this.customAudioFileList = customAudioFileList;
+    }
+
     private List<File> setPlayAudioFileList(String path) {
         if (Objects.nonNull(path)) {
             File directory = new File(path);
@@ -12,30 +12,40 @@ import java.util.Arrays;
 public class AudioPlayerLoadResultHandler implements AudioLoadResultHandler {
 
     private final AudioPlayerSendHandler audioPlayerSendHandler;
+    private final TrackPriority priority;
 
-    public AudioPlayerLoadResultHandler(AudioPlayerSendHandler audioPlayerSendHandler) {
+    /**
+     * @param audioPlayerSendHandler the guild whose scheduler gets the loaded track
+     * @param priority               why the track is played
+     */
+    public AudioPlayerLoadResultHandler(AudioPlayerSendHandler audioPlayerSendHandler, TrackPriority priority) {
         this.audioPlayerSendHandler = audioPlayerSendHandler;
+        this.priority = priority;
     }
 
     @Override
     public void trackLoaded(AudioTrack track) {
         log.info("Playing {}", getAudioFileName(track));
-        audioPlayerSendHandler.getTrackScheduler().queue(track);
+        audioPlayerSendHandler.getTrackScheduler().queue(track, priority);
+        audioPlayerSendHandler.onLoadFinished();
     }
 
     @Override
     public void playlistLoaded(AudioPlaylist playlist) {
         log.info("playlistLoaded");
+        audioPlayerSendHandler.onLoadFinished();
     }
 
     @Override
     public void noMatches() {
         log.info("noMatches");
+        audioPlayerSendHandler.onLoadFinished();
     }
 
     @Override
     public void loadFailed(FriendlyException exception) {
         log.info("loadFailed");
+        audioPlayerSendHandler.onLoadFinished();
     }
 
     private String getAudioFileName(AudioTrack track) {
@@ -0,0 +1,219 @@
+package lepo.bot.audio;
+
+import com.github.topi314.lavasrc.flowerytts.FloweryTTSSourceManager;
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.player.DefaultAudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.source.AudioSourceManagers;
+import com.sedmelluq.discord.lavaplayer.source.local.LocalAudioSourceManager;
+import com.sedmelluq.discord.lavaplayer.track.playback.NonAllocatingAudioFrameBuffer;
+import lepo.bot.audio.opus.OpusFrameCache;
+import lepo.bot.audio.pack.PackedAudioSourceManager;
+import lepo.bot.audio.tts.CachedTtsSourceManager;
+import lepo.bot.audio.tts.TtsDiskCache;
+import lepo.bot.audio.tts.TtsProvider;
+import lepo.bot.scheduler.GuildMailbox;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import net.dv8tion.jda.api.audio.hooks.ConnectionStatus;
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.entities.channel.middleman.AudioChannel;
+import net.dv8tion.jda.api.events.guild.GuildLeaveEvent;
+import net.dv8tion.jda.api.events.guild.voice.GuildVoiceUpdateEvent;
+import net.dv8tion.jda.api.hooks.ListenerAdapter;
+import net.dv8tion.jda.api.managers.AudioManager;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps one {@link AudioPlayerSendHandler} per guild, so every guild gets its own
+ * player, queue and buffer. Players are created lazily on first use and evicted
+ * when the bot leaves voice in that guild (or leaves the guild).
+ * Connecting and evicting take the same lock, so a player is never destroyed while a new connection sends from it.
+ * The {@link AudioPlayerManager}, its source managers and the clip and TTS caches are shared.
+ */
+@Slf4j
+public class AudioPlayerRegistry extends ListenerAdapter {
+
+    private static final int FRAMES_PER_SECOND = 50;
+
+    @Getter
+    private final AudioPlayerManager audioPlayerManager;
+    @Getter
+    private final PackedAudioSourceManager packedAudioSourceManager;
+    @Getter
+    private final AudioTrackCache audioTrackCache;
+    @Getter
+    private final OpusFrameCache opusFrameCache;
+    @Getter
+    private final CachedTtsSourceManager cachedTtsSourceManager;
+    private final QueueLimits queueLimits;
+    private final GuildMailbox guildMailbox;
+    private final Map<Long, AudioPlayerSendHandler> audioPlayers;
+    private final Map<Long, Long> lastConnections;
+    private long connections;
+
+    /**
+     * @param clipPackPath           where the clip pack served by {@link PackedAudioSourceManager} is kept
+     * @param opusFrameCacheBudgetMb memory allowed to the {@link OpusFrameCache}
+     * @param ttsVoice               voice of the TTS identifiers not naming one,
+     *                               see <a href="https://api.flowery.pw/v1/tts/voices">voices</a>
+     * @param ttsDiskCache           where synthesized phrases are kept by the {@link CachedTtsSourceManager}
+     * @param ttsProvider            renders the phrases missing from the cache
+     * @param ttsStallTimeout        longest wait for the next bytes of a phrase played while it downloads
+     * @param queueLimits            bound of the queue of every guild
+     * @param guildMailbox           orders the release of a player with the other voice decisions of its guild
+     */
+    public AudioPlayerRegistry(Path clipPackPath, long opusFrameCacheBudgetMb, String ttsVoice, TtsDiskCache ttsDiskCache, TtsProvider ttsProvider,
+                               Duration ttsStallTimeout, QueueLimits queueLimits, GuildMailbox guildMailbox) {
+        this.audioPlayerManager = new DefaultAudioPlayerManager();
+        this.audioPlayerManager.getConfiguration().setFrameBufferFactory(NonAllocatingAudioFrameBuffer::new);
+        this.packedAudioSourceManager = new PackedAudioSourceManager(clipPackPath);
+        LocalAudioSourceManager localAudioSourceManager = new LocalAudioSourceManager();
+        this.cachedTtsSourceManager = new CachedTtsSourceManager(ttsVoice, localAudioSourceManager, ttsDiskCache, ttsProvider, ttsStallTimeout);
+        audioPlayerManager.registerSourceManager(packedAudioSourceManager);
+        audioPlayerManager.registerSourceManager(cachedTtsSourceManager);
+        AudioSourceManagers.registerRemoteSources(audioPlayerManager);
+        audioPlayerManager.registerSourceManager(localAudioSourceManager);
+        audioPlayerManager.registerSourceManager(new FloweryTTSSourceManager(ttsVoice));
+        this.audioTrackCache = new AudioTrackCache(audioPlayerManager, packedAudioSourceManager);
+        this.opusFrameCache = new OpusFrameCache(opusFrameCacheBudgetMb * 1024 * 1024);
+        this.queueLimits = queueLimits;
+        this.guildMailbox = guildMailbox;
+        this.audioPlayers = new ConcurrentHashMap<>();
+        this.lastConnections = new HashMap<>();
+    }
+
+    /**
+     * Returns the audio pipeline of the guild, creating it if needed.
+     *
+     * @param guild the guild owning the player
+     * @return the guild send handler
+     */
+    public AudioPlayerSendHandler get(Guild guild) {
+        return audioPlayers.computeIfAbsent(guild.getIdLong(), guildId -> {
+            log.info("Creating audio player for guild {}", guild.getName());
+            return new AudioPlayerSendHandler(audioPlayerManager, audioTrackCache, opusFrameCache, cachedTtsSourceManager, queueLimits);
+        });
+    }
+
+    /**
+     * Opens the audio connection and points the guild audio manager at the guild's own send handler.
+     * Runs on the calling thread; the connection is numbered so a release decided before it is not applied.
+     *
+     * @param audioManager the guild audio manager
+     * @param channel      the channel to connect to
+     */
+    public void connect(AudioManager audioManager, AudioChannel channel) {
+        synchronized (lastConnections) {
+            lastConnections.put(audioManager.getGuild().getIdLong(), ++connections);
+            audioManager.openAudioConnection(channel);
+            audioManager.setSendingHandler(get(audioManager.getGuild()));
+        }
+    }
+
+    /**
+     * Stops and destroys the guild player, if any.
+     *
+     * @param guild the guild whose player must be released
+     */
+    public void evict(Guild guild) {
+        Optional<AudioPlayerSendHandler> audioPlayerSendHandler;
+        synchronized (lastConnections) {
+            audioPlayerSendHandler = detach(guild);
+        }
+        audioPlayerSendHandler.ifPresent(handler -> release(guild, handler));
+    }
+
+    /**
+     * Evicts the guild player unless the bot is connected, or a connection was opened, since the bot left voice.
+     *
+     * @param guild            the guild whose player must be released
+     * @param connectionAtLeft the last connection of the guild when the bot left voice
+     */
+    private void evictIfNotReconnected(Guild guild, long connectionAtLeft) {
+        Optional<AudioPlayerSendHandler> audioPlayerSendHandler;
+        synchronized (lastConnections) {
+            if (lastConnections.getOrDefault(guild.getIdLong(), 0L) != connectionAtLeft
+                    || guild.getAudioManager().getConnectionStatus() != ConnectionStatus.NOT_CONNECTED) {
+                return;
+            }
+            audioPlayerSendHandler = detach(guild);
+        }
+        audioPlayerSendHandler.ifPresent(handler -> release(guild, handler));
+    }
+
+    /**
+     * Removes the guild player and unhooks it from the audio manager, so nothing sends from it once destroyed.
+     * Called holding the connection lock.
+     */
+    private Optional<AudioPlayerSendHandler> detach(Guild guild) {
+        AudioManager audioManager = guild.getAudioManager();
+        Optional<AudioPlayerSendHandler> audioPlayerSendHandler = Optional.ofNullable(audioPlayers.remove(guild.getIdLong()));
+        audioPlayerSendHandler
+                .filter(handler -> audioManager.getSendingHandler() == handler)
+                .ifPresent(handler -> audioManager.setSendingHandler(null));
+        return audioPlayerSendHandler;
+    }
+
+    private void release(Guild guild, AudioPlayerSendHandler audioPlayerSendHandler) {
+        log.info("Releasing audio player for guild {}", guild.getName());
+        audioPlayerSendHandler.getTrackScheduler().clearQueueAndStop();
+        audioPlayerSendHandler.getAudioPlayer().destroy();
+    }
+
+    /**
+     * Logs how the frames sent by the guilds currently connected were produced, what their queues refused and how greetings were played.
+     */
+    public void logMetrics() {
+        long packetFrames = audioPlayers.values().stream().mapToLong(AudioPlayerSendHandler::getPacketFrameCount).sum();
+        long playerFrames = audioPlayers.values().stream().mapToLong(AudioPlayerSendHandler::getPlayerFrameCount).sum();
+        long copiedBytes = audioPlayers.values().stream().mapToLong(AudioPlayerSendHandler::getCopiedBytes).sum();
+        long audioSeconds = (packetFrames + playerFrames) / FRAMES_PER_SECOND;
+        log.info("Send path: {} s of audio, {} frames without copy, {} frames copied ({} KB), {} copies per second of audio",
+                audioSeconds, packetFrames, playerFrames, copiedBytes / 1024, audioSeconds == 0 ? 0 : playerFrames / audioSeconds);
+        log.info("Queues: {} items waiting, {} dropped on overflow ({}), {} TTS rate limited, {} interrupted by greetings",
+                audioPlayers.values().stream().mapToInt(handler -> handler.getTrackScheduler().getQueuedCount()).sum(),
+                audioPlayers.values().stream().mapToLong(handler -> handler.getTrackScheduler().getDroppedCount()).sum(),
+                queueLimits.getDropPolicy(),
+                audioPlayers.values().stream().mapToLong(handler -> handler.getTrackScheduler().getRateLimitedCount()).sum(),
+                audioPlayers.values().stream().mapToLong(handler -> handler.getTrackScheduler().getPreemptedCount()).sum());
+        log.info("Greetings: {} gapless, {} as name and clip",
+                audioPlayers.values().stream().mapToLong(AudioPlayerSendHandler::getGaplessGreetingCount).sum(),
+                audioPlayers.values().stream().mapToLong(AudioPlayerSendHandler::getSplitGreetingCount).sum());
+    }
+
+    /**
+     * The bot itself left voice: release the player unless a new connection is already being opened (move).
+     * Decided on the guild mailbox, after the reconnects already posted there; a connection opened meanwhile by a
+     * command, outside the mailbox, is told apart by its number, taken here on the event thread running commands.
+     */
+    @Override
+    public void onGuildVoiceUpdate(@NotNull GuildVoiceUpdateEvent event) {
+        Guild guild = event.getGuild();
+        Optional.of(event)
+                .filter(e -> e.getMember().equals(guild.getSelfMember()))
+                .filter(e -> e.getChannelJoined() == null)
+                .ifPresent(e -> {
+                    long connectionAtLeft = lastConnection(guild);
+                    guildMailbox.execute(guild.getIdLong(), () -> evictIfNotReconnected(guild, connectionAtLeft));
+                });
+    }
+
+    private long lastConnection(Guild guild) {
+        synchronized (lastConnections) {
+            return lastConnections.getOrDefault(guild.getIdLong(), 0L);
+        }
+    }
+
+    @Override
+    public void onGuildLeave(@NotNull GuildLeaveEvent event) {
+        guildMailbox.execute(event.getGuild().getIdLong(), () -> evict(event.getGuild()));
+    }
+
+}
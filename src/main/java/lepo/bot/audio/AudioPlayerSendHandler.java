@@ -1,58 +1,188 @@
 package lepo.bot.audio;
 
-import com.github.topi314.lavasrc.flowerytts.FloweryTTSSourceManager;
 import com.sedmelluq.discord.lavaplayer.player.AudioPlayer;
 import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
-import com.sedmelluq.discord.lavaplayer.player.DefaultAudioPlayerManager;
-import com.sedmelluq.discord.lavaplayer.source.AudioSourceManagers;
 import com.sedmelluq.discord.lavaplayer.track.playback.MutableAudioFrame;
-import com.sedmelluq.discord.lavaplayer.track.playback.NonAllocatingAudioFrameBuffer;
+import lepo.bot.audio.opus.OpusFrameCache;
+import lepo.bot.audio.opus.OpusFrames;
+import lepo.bot.audio.tts.CachedTtsSourceManager;
+import lepo.bot.audio.tts.TtsRequest;
+import lombok.AccessLevel;
 import lombok.Getter;
 import net.dv8tion.jda.api.audio.AudioSendHandler;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * Audio pipeline of a single guild: its own player, queue and frame buffer.
+ * Instances are created and evicted by {@link AudioPlayerRegistry}.
+ *
+ * <p>Every buffer handed to JDA is backed by a heap array, because JDA refuses buffers without one.
+ * Pre-demuxed packets are handed over as views of their shared array, with no copy at all; lavaplayer
+ * frames are copied once, from the player frame buffer into {@link #buffer}, and never allocate.
+ * Both kinds of frames are counted so the copies per second of audio can be logged.</p>
+ */
 @Getter
 public class AudioPlayerSendHandler implements AudioSendHandler {
 
-    /**
-     * Tts voice:
-     * "name": "Stella",
-     * "gender": "Female",
-     * "source": "Google Cloud",
-     * voice at <a href="https://api.flowery.pw/v1/tts/voices">TTS_VOICE</a>
-     */
-    private static final String TTS_VOICE = "d93be03a-bc71-52fd-8e51-1e5cf24cf621";
-
     private final AudioPlayerManager audioPlayerManager;
     private final AudioPlayer audioPlayer;
     private final ByteBuffer buffer;
     private final MutableAudioFrame frame;
     private final TrackScheduler trackScheduler;
+    private final AudioTrackCache audioTrackCache;
+    private final OpusFrameCache opusFrameCache;
+    private final CachedTtsSourceManager cachedTtsSourceManager;
+    @Getter(AccessLevel.NONE)
+    private final Deque<Runnable> clipsWaitingForLoads;
+    @Getter(AccessLevel.NONE)
+    private int pendingLoads;
+    @Getter(AccessLevel.NONE)
+    private ByteBuffer opusPacket;
+    @Getter(AccessLevel.NONE)
+    private final LongAdder packetFrames;
+    @Getter(AccessLevel.NONE)
+    private final LongAdder playerFrames;
+    @Getter(AccessLevel.NONE)
+    private final LongAdder copiedBytes;
+    @Getter(AccessLevel.NONE)
+    private final LongAdder gaplessGreetings;
+    @Getter(AccessLevel.NONE)
+    private final LongAdder splitGreetings;
 
-    public AudioPlayerSendHandler() {
-        this.audioPlayerManager = new DefaultAudioPlayerManager();
-        this.audioPlayerManager.getConfiguration().setFrameBufferFactory(NonAllocatingAudioFrameBuffer::new);
-        AudioSourceManagers.registerRemoteSources(audioPlayerManager);
-        AudioSourceManagers.registerLocalSource(audioPlayerManager);
+    public AudioPlayerSendHandler(AudioPlayerManager audioPlayerManager, AudioTrackCache audioTrackCache, OpusFrameCache opusFrameCache,
+                                  CachedTtsSourceManager cachedTtsSourceManager, QueueLimits queueLimits) {
+        this.audioPlayerManager = audioPlayerManager;
+        this.audioTrackCache = audioTrackCache;
+        this.opusFrameCache = opusFrameCache;
+        this.cachedTtsSourceManager = cachedTtsSourceManager;
         this.audioPlayer = audioPlayerManager.createPlayer();
         this.buffer = ByteBuffer.allocate(2048);
         this.frame = new MutableAudioFrame();
         this.frame.setBuffer(buffer);
-        FloweryTTSSourceManager ttsSourceManager = new FloweryTTSSourceManager(TTS_VOICE);
-        audioPlayerManager.registerSourceManager(ttsSourceManager);
-        this.trackScheduler = new TrackScheduler(this.audioPlayer);
+        this.trackScheduler = new TrackScheduler(this.audioPlayer, queueLimits);
         this.audioPlayer.addListener(trackScheduler);
+        this.clipsWaitingForLoads = new ArrayDeque<>();
+        this.packetFrames = new LongAdder();
+        this.playerFrames = new LongAdder();
+        this.copiedBytes = new LongAdder();
+        this.gaplessGreetings = new LongAdder();
+        this.splitGreetings = new LongAdder();
+    }
+
+    /**
+     * Loads the given identifier and queues the result on this guild's scheduler.
+     * Loads of the same guild complete in the order they were requested.
+     * /tts phrases beyond the rate limit of the guild are not loaded at all.
+     *
+     * @param identifier a local path or a remote identifier (e.g. ftts://)
+     * @param priority   why the item is played
+     * @return whether the load was started, false if the TTS rate limit was reached
+     */
+    public boolean loadItem(String identifier, TrackPriority priority) {
+        if (priority == TrackPriority.TTS && !trackScheduler.tryAcquireTts()) {
+            return false;
+        }
+        synchronized (clipsWaitingForLoads) {
+            pendingLoads++;
+        }
+        audioPlayerManager.loadItemOrdered(this, identifier, new AudioPlayerLoadResultHandler(this, priority));
+        return true;
+    }
+
+    /**
+     * Queues a clip of the catalog right away, from its pre-demuxed frames when cached or else from its
+     * track prototype. If loads requested before are still running, the clip waits for them to keep the order.
+     *
+     * @param audioClip the clip to play
+     * @param priority  why the clip is played
+     */
+    public void play(AudioClip audioClip, TrackPriority priority) {
+        synchronized (clipsWaitingForLoads) {
+            if (pendingLoads > 0) {
+                clipsWaitingForLoads.add(() -> queue(audioClip, priority));
+                return;
+            }
+        }
+        queue(audioClip, priority);
+    }
+
+    /**
+     * Greets a member with the TTS of the name followed by the welcome clip. When the name is cached and the clip
+     * pre-demuxed, their packets are joined into one clip: a single queue item, scheduled once, with no gap
+     * between the two. Otherwise the name is loaded and the clip queued after it, as two items.
+     *
+     * @param name        the name to say
+     * @param welcomeClip the clip played after the name
+     */
+    public void greet(String name, AudioClip welcomeClip) {
+        Optional<OpusFrames> greeting = cachedTtsSourceManager.cachedFrames(name)
+                .flatMap(nameFrames -> opusFrameCache.get(welcomeClip).map(clipFrames -> OpusFrames.concat(nameFrames, clipFrames)));
+        if (greeting.isEmpty()) {
+            splitGreetings.increment();
+            loadItem(TtsRequest.identifierOf(name), TrackPriority.GREETING);
+            play(welcomeClip, TrackPriority.GREETING);
+            return;
+        }
+        gaplessGreetings.increment();
+        String label = name + " + " + welcomeClip.getId();
+        synchronized (clipsWaitingForLoads) {
+            if (pendingLoads > 0) {
+                clipsWaitingForLoads.add(() -> trackScheduler.queue(greeting.get(), label, TrackPriority.GREETING));
+                return;
+            }
+        }
+        trackScheduler.queue(greeting.get(), label, TrackPriority.GREETING);
+    }
+
+    /**
+     * Called by {@link AudioPlayerLoadResultHandler} once a load ended, whatever its result.
+     */
+    void onLoadFinished() {
+        List<Runnable> readyClips = new ArrayList<>();
+        synchronized (clipsWaitingForLoads) {
+            pendingLoads = Math.max(0, pendingLoads - 1);
+            if (pendingLoads == 0) {
+                readyClips.addAll(clipsWaitingForLoads);
+                clipsWaitingForLoads.clear();
+            }
+        }
+        readyClips.forEach(Runnable::run);
+    }
+
+    private void queue(AudioClip audioClip, TrackPriority priority) {
+        opusFrameCache.get(audioClip)
+                .ifPresentOrElse(opusFrames -> trackScheduler.queue(opusFrames, audioClip.getId(), priority),
+                        () -> audioTrackCache.play(audioClip, trackScheduler, priority));
     }
 
+    /**
+     * Pre-demuxed packets are served as they are; otherwise the player writes the next frame into the buffer.
+     */
     @Override
     public boolean canProvide() {
-        return this.audioPlayer.provide(this.frame);
+        this.opusPacket = trackScheduler.nextOpusPacket();
+        if (this.opusPacket != null) {
+            packetFrames.increment();
+            return true;
+        }
+        if (this.audioPlayer.provide(this.frame)) {
+            playerFrames.increment();
+            copiedBytes.add(this.frame.getDataLength());
+            return true;
+        }
+        return false;
     }
 
     @Override
     public ByteBuffer provide20MsAudio() {
-        return this.buffer.flip();
+        return this.opusPacket != null ? this.opusPacket : this.buffer.flip();
     }
 
     @Override
@@ -60,4 +190,36 @@ public class AudioPlayerSendHandler implements AudioSendHandler {
         return true;
     }
 
-}
\ No newline at end of file
+    /**
+     * @return frames handed to JDA as views of pre-demuxed packets, without copies
+     */
+    public long getPacketFrameCount() {
+        return packetFrames.sum();
+    }
+
+    /**
+     * @return frames copied from the player frame buffer
+     */
+    public long getPlayerFrameCount() {
+        return playerFrames.sum();
+    }
+
+    public long getCopiedBytes() {
+        return copiedBytes.sum();
+    }
+
+    /**
+     * @return greetings played as a single joined clip
+     */
+    public long getGaplessGreetingCount() {
+        return gaplessGreetings.sum();
+    }
+
+    /**
+     * @return greetings played as a name and a clip, because one of them was not pre-demuxed
+     */
+    public long getSplitGreetingCount() {
+        return splitGreetings.sum();
+    }
+
+}
@@ -0,0 +1,128 @@
+package lepo.bot.audio;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioLoadResultHandler;
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.tools.FriendlyException;
+import com.sedmelluq.discord.lavaplayer.track.AudioPlaylist;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import lepo.bot.audio.pack.PackedAudioSourceManager;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps one loaded {@link AudioTrack} per clip of the catalog, used only as a prototype:
+ * playing a clip queues a {@link AudioTrack#makeClone()} of it, so the file is probed once
+ * and the clone reaches the scheduler synchronously instead of after an asynchronous load.
+ * Clips not preloaded yet are loaded on first play. Clips are loaded from the clip pack when they are packed.
+ */
+@Slf4j
+public class AudioTrackCache implements AudioCatalogListener {
+
+    private final AudioPlayerManager audioPlayerManager;
+    private final PackedAudioSourceManager packedAudioSourceManager;
+    private final Map<AudioClip, AudioTrack> prototypes;
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+
+    public AudioTrackCache(AudioPlayerManager audioPlayerManager, PackedAudioSourceManager packedAudioSourceManager) {
+        this.audioPlayerManager = audioPlayerManager;
+        this.packedAudioSourceManager = packedAudioSourceManager;
+        this.prototypes = new ConcurrentHashMap<>();
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+    }
+
+    /**
+     * Loads in background every clip of the catalog not already cached.
+     */
+    public void preload(AudioCatalog audioCatalog) {
+        Arrays.stream(AudioCategory.values())
+                .flatMap(category -> audioCatalog.getClips(category).stream())
+                .filter(audioClip -> !prototypes.containsKey(audioClip))
+                .forEach(audioClip -> load(audioClip, track -> {
+                }));
+    }
+
+    /**
+     * Queues a clone of the clip on the given scheduler, loading the clip first if needed.
+     * The clone carries the player volume of the clip, see {@link Loudness}.
+     */
+    public void play(AudioClip audioClip, TrackScheduler trackScheduler, TrackPriority priority) {
+        Optional.ofNullable(prototypes.get(audioClip))
+                .ifPresentOrElse(prototype -> {
+                    hits.incrementAndGet();
+                    trackScheduler.queue(clone(audioClip, prototype), priority);
+                }, () -> {
+                    misses.incrementAndGet();
+                    load(audioClip, prototype -> trackScheduler.queue(clone(audioClip, prototype), priority));
+                });
+    }
+
+    private static AudioTrack clone(AudioClip audioClip, AudioTrack prototype) {
+        AudioTrack track = prototype.makeClone();
+        track.setUserData(Loudness.playbackVolume(audioClip));
+        return track;
+    }
+
+    /**
+     * Drops the prototypes of removed or replaced clips and preloads the new ones.
+     */
+    @Override
+    public void onCatalogChanged(AudioCatalog audioCatalog) {
+        Set<AudioClip> audioClips = Arrays.stream(AudioCategory.values())
+                .flatMap(category -> audioCatalog.getClips(category).stream())
+                .collect(Collectors.toSet());
+        prototypes.keySet().retainAll(audioClips);
+        preload(audioCatalog);
+    }
+
+    /**
+     * @return the identifier lavaplayer should load the clip from
+     */
+    public String identifier(AudioClip audioClip) {
+        return packedAudioSourceManager.identifier(audioClip);
+    }
+
+    public int size() {
+        return prototypes.size();
+    }
+
+    public void logMetrics() {
+        log.info("Track prototypes: cached {}, hits {}, misses {}", prototypes.size(), hits.get(), misses.get());
+    }
+
+    private void load(AudioClip audioClip, Consumer<AudioTrack> onLoaded) {
+        String path = audioClip.getPath();
+        audioPlayerManager.loadItem(identifier(audioClip), new AudioLoadResultHandler() {
+            @Override
+            public void trackLoaded(AudioTrack track) {
+                prototypes.putIfAbsent(audioClip, track);
+                onLoaded.accept(prototypes.get(audioClip));
+            }
+
+            @Override
+            public void playlistLoaded(AudioPlaylist playlist) {
+                log.info("Unexpected playlist for {}", path);
+            }
+
+            @Override
+            public void noMatches() {
+                log.info("No matches for {}", path);
+            }
+
+            @Override
+            public void loadFailed(FriendlyException exception) {
+                log.info("Cannot load {}: {}", path, exception.getMessage());
+            }
+        });
+    }
+
+}
@@ -0,0 +1,253 @@
+package lepo.bot.audio;
+
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Binary cache of what is known about the library, kept between restarts: the clip names of every directory
+ * and, for every clip, its size, modification time, duration, content hash and loudness once measured.
+ *
+ * <p>A directory whose modification time did not change still holds the same names, so it is not listed again;
+ * a clip whose size and modification time did not change is not read again. Only new or modified clips are
+ * scanned, so the time to ready does not grow with the size of the library.</p>
+ */
+@Slf4j
+public class LibraryManifest {
+
+    private static final int MAGIC = 0x4C4D414E;
+    private static final int VERSION = 2;
+    private static final String AUDIO_EXTENSION = ".opus";
+
+    private final Path manifestPath;
+    private final Map<String, Listing> listings;
+    private final Map<String, Entry> entries;
+    private volatile boolean dirty;
+
+    private LibraryManifest(Path manifestPath, Map<String, Listing> listings, Map<String, Entry> entries) {
+        this.manifestPath = manifestPath;
+        this.listings = listings;
+        this.entries = entries;
+    }
+
+    /**
+     * @param manifestPath where the manifest is kept
+     * @return the saved manifest, or an empty one if it is missing or unreadable
+     */
+    public static LibraryManifest load(Path manifestPath) {
+        Map<String, Listing> listings = new ConcurrentHashMap<>();
+        Map<String, Entry> entries = new ConcurrentHashMap<>();
+        if (Files.exists(manifestPath)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(manifestPath)))) {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                    throw new IOException("unknown format");
+                }
+                int listingCount = in.readInt();
+                for (int i = 0; i < listingCount; i++) {
+                    String directory = in.readUTF();
+                    long lastModified = in.readLong();
+                    String[] names = new String[in.readInt()];
+                    for (int n = 0; n < names.length; n++) {
+                        names[n] = in.readUTF();
+                    }
+                    listings.put(directory, new Listing(lastModified, List.of(names)));
+                }
+                int entryCount = in.readInt();
+                for (int i = 0; i < entryCount; i++) {
+                    Entry entry = new Entry(in.readUTF(), in.readLong(), in.readLong(), in.readLong(), in.readUTF(), in.readDouble());
+                    entries.put(entry.getPath(), entry);
+                }
+            } catch (IOException e) {
+                log.info("Library manifest {} not readable, scanning the whole library: {}", manifestPath, e.getMessage());
+                listings.clear();
+                entries.clear();
+            }
+        }
+        return new LibraryManifest(manifestPath, listings, entries);
+    }
+
+    /**
+     * @return the clips of the four directories, each sorted by name ignoring case
+     */
+    public AudioFiles listAudioFiles(String path, String welcomeAudioPath, String goodbyeAudioPath, String customAudioPath) {
+        AudioFiles audioFiles = new AudioFiles(list(path), list(welcomeAudioPath), list(goodbyeAudioPath), list(customAudioPath));
+        log.info("Library: {} play, {} welcome, {} goodbye, {} custom clips",
+                audioFiles.getPlayAudioFileList().size(), audioFiles.getWelcomeAudioFileList().size(),
+                audioFiles.getGoodbyeAudioFileList().size(), audioFiles.getCustomAudioFileList().size());
+        return audioFiles;
+    }
+
+    /**
+     * @param directory a directory of clips, may be null
+     * @return its opus files sorted by name ignoring case, listed again only if the directory changed
+     */
+    public List<File> list(String directory) {
+        if (Objects.isNull(directory)) {
+            return new ArrayList<>();
+        }
+        File dir = new File(directory);
+        String key = dir.getAbsolutePath();
+        long lastModified = dir.lastModified();
+        Listing listing = listings.get(key);
+        if (listing == null || listing.lastModified != lastModified) {
+            String[] names = Objects.requireNonNullElse(dir.list((parent, name) -> name.toLowerCase().endsWith(AUDIO_EXTENSION)), new String[0]);
+            Arrays.sort(names, String::compareToIgnoreCase);
+            listing = new Listing(lastModified, List.of(names));
+            listings.put(key, listing);
+            dirty = true;
+            log.info("Directory {} changed, listed {} clips", directory, names.length);
+        }
+        return listing.names.stream().map(name -> new File(dir, name)).collect(Collectors.toList());
+    }
+
+    /**
+     * @param file a clip
+     * @return what is known about the clip, scanned again only if its size or modification time changed
+     */
+    public Entry describe(File file) {
+        String path = file.getAbsolutePath();
+        long size = file.length();
+        long lastModified = file.lastModified();
+        Entry entry = entries.get(path);
+        if (entry != null && entry.getSize() == size && entry.getLastModified() == lastModified) {
+            return entry;
+        }
+        entry = new Entry(path, size, lastModified, AudioCatalog.readDurationMs(file), sha256(file), Double.NaN);
+        entries.put(path, entry);
+        dirty = true;
+        return entry;
+    }
+
+    /**
+     * Stores the integrated loudness measured for the clip, kept until the clip changes.
+     *
+     * @param file         a clip
+     * @param loudnessLufs its integrated loudness in LUFS
+     */
+    public void recordLoudness(File file, double loudnessLufs) {
+        Entry entry = describe(file);
+        entries.put(entry.getPath(), new Entry(entry.getPath(), entry.getSize(), entry.getLastModified(),
+                entry.getDurationMs(), entry.getSha256(), loudnessLufs));
+        dirty = true;
+    }
+
+    /**
+     * Writes the manifest if something was scanned, dropping the clips that are not in the library anymore.
+     *
+     * @param libraries the clips to keep, e.g. the original library and the ingested one
+     */
+    public synchronized void save(AudioFiles... libraries) {
+        Set<String> paths = Arrays.stream(libraries)
+                .flatMap(audioFiles -> Stream.of(audioFiles.getPlayAudioFileList(), audioFiles.getWelcomeAudioFileList(),
+                        audioFiles.getGoodbyeAudioFileList(), audioFiles.getCustomAudioFileList()))
+                .flatMap(List::stream)
+                .map(File::getAbsolutePath)
+                .collect(Collectors.toSet());
+        if (entries.keySet().retainAll(paths)) {
+            dirty = true;
+        }
+        if (!dirty) {
+            return;
+        }
+        Path tmp = manifestPath.resolveSibling(manifestPath.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(listings.size());
+            for (Map.Entry<String, Listing> listing : listings.entrySet()) {
+                out.writeUTF(listing.getKey());
+                out.writeLong(listing.getValue().lastModified);
+                out.writeInt(listing.getValue().names.size());
+                for (String name : listing.getValue().names) {
+                    out.writeUTF(name);
+                }
+            }
+            out.writeInt(entries.size());
+            for (Entry entry : entries.values()) {
+                out.writeUTF(entry.getPath());
+                out.writeLong(entry.getSize());
+                out.writeLong(entry.getLastModified());
+                out.writeLong(entry.getDurationMs());
+                out.writeUTF(entry.getSha256());
+                out.writeDouble(entry.getLoudnessLufs());
+            }
+        } catch (IOException e) {
+            log.info("Cannot write library manifest {}: {}", manifestPath, e.getMessage());
+            return;
+        }
+        try {
+            Files.move(tmp, manifestPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            dirty = false;
+            log.info("Library manifest saved with {} clips", entries.size());
+        } catch (IOException e) {
+            log.info("Cannot write library manifest {}: {}", manifestPath, e.getMessage());
+        }
+    }
+
+    private static String sha256(File file) {
+        try (DigestInputStream in = new DigestInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())), MessageDigest.getInstance("SHA-256"))) {
+            in.transferTo(OutputStream.nullOutputStream());
+            byte[] digest = in.getMessageDigest().digest();
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (IOException e) {
+            log.info("Cannot hash {}: {}", file.getName(), e.getMessage());
+            return "";
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    /**
+     * Metadata of one clip, the path is absolute; the loudness is NaN until measured.
+     */
+    @Value
+    public static class Entry {
+
+        String path;
+        long size;
+        long lastModified;
+        long durationMs;
+        String sha256;
+        double loudnessLufs;
+
+    }
+
+    private static final class Listing {
+
+        private final long lastModified;
+        private final List<String> names;
+
+        private Listing(long lastModified, List<String> names) {
+            this.lastModified = lastModified;
+            this.names = names;
+        }
+
+    }
+
+}
@@ -0,0 +1,107 @@
+package lepo.bot.audio;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/**
+ * Watches the library directories and runs the given reload once they have been quiet for a while,
+ * so a clip being copied or a burst of renames triggers a single reload. Reloads run one at a time
+ * on the watcher thread, never on JDA or audio threads.
+ */
+@Slf4j
+public class LibraryWatcher implements Closeable {
+
+    private static final String AUDIO_EXTENSION = ".opus";
+
+    private final WatchService watchService;
+    private final Runnable reload;
+    private final long quietPeriodMs;
+    private final Thread thread;
+
+    /**
+     * @param directories   the library directories, null entries are skipped
+     * @param reload        what to run after a change
+     * @param quietPeriodMs how long the directories must stay quiet before reloading
+     * @throws IOException if the directories cannot be watched
+     */
+    public LibraryWatcher(List<String> directories, Runnable reload, long quietPeriodMs) throws IOException {
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.reload = reload;
+        this.quietPeriodMs = quietPeriodMs;
+        for (String directory : directories) {
+            if (Objects.nonNull(directory)) {
+                Path.of(directory).register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+            }
+        }
+        this.thread = new Thread(this::watch, "library-watcher");
+        this.thread.setDaemon(true);
+    }
+
+    public void start() {
+        thread.start();
+        log.info("Watching the library for changes");
+    }
+
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                if (!isLibraryChange(watchService.take())) {
+                    continue;
+                }
+                WatchKey watchKey;
+                while ((watchKey = watchService.poll(quietPeriodMs, TimeUnit.MILLISECONDS)) != null) {
+                    isLibraryChange(watchKey);
+                }
+                runReload();
+            }
+        } catch (ClosedWatchServiceException e) {
+            log.info("Library watcher stopped");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void runReload() {
+        try {
+            reload.run();
+        } catch (RuntimeException e) {
+            log.info("Library reload failed: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Consumes the events of the key and resets it.
+     *
+     * @return whether one of the events concerns a clip, or events were lost
+     */
+    private static boolean isLibraryChange(WatchKey watchKey) {
+        boolean changed = false;
+        for (WatchEvent<?> event : watchKey.pollEvents()) {
+            changed |= event.kind() == OVERFLOW || event.context().toString().toLowerCase().endsWith(AUDIO_EXTENSION);
+        }
+        watchKey.reset();
+        return changed;
+    }
+
+}
@@ -0,0 +1,44 @@
+package lepo.bot.audio;
+
+/**
+ * Loudness target of the library. Clips are brought to the target once, by the ingest stage, so they keep
+ * playing as pass-through opus; a player volume is used only for clips the ingest could not rewrite,
+ * and only when they are off target by more than the tolerance.
+ */
+public final class Loudness {
+
+    public static final double TARGET_LUFS = -18;
+    public static final double TOLERANCE_LU = 3;
+    /**
+     * Volume at which lavaplayer forwards opus packets without decoding them.
+     */
+    public static final int PASS_THROUGH_VOLUME = 100;
+    private static final double MAX_PLAYBACK_GAIN_DB = 6;
+
+    private Loudness() {
+    }
+
+    /**
+     * @param loudnessLufs integrated loudness, NaN when unknown
+     * @return the gain in dB reaching the target, 0 when within the tolerance or unknown
+     */
+    public static double gainDb(double loudnessLufs) {
+        if (Double.isNaN(loudnessLufs) || Math.abs(TARGET_LUFS - loudnessLufs) <= TOLERANCE_LU) {
+            return 0;
+        }
+        return TARGET_LUFS - loudnessLufs;
+    }
+
+    public static boolean isPassThrough(AudioClip audioClip) {
+        return gainDb(audioClip.getLoudnessLufs()) == 0;
+    }
+
+    /**
+     * @return the player volume for the clip, {@link #PASS_THROUGH_VOLUME} unless a small correction is needed
+     */
+    public static int playbackVolume(AudioClip audioClip) {
+        double gainDb = Math.max(-MAX_PLAYBACK_GAIN_DB, Math.min(MAX_PLAYBACK_GAIN_DB, gainDb(audioClip.getLoudnessLufs())));
+        return gainDb == 0 ? PASS_THROUGH_VOLUME : (int) Math.round(PASS_THROUGH_VOLUME * Math.pow(10, gainDb / 20));
+    }
+
+}
@@ -0,0 +1,36 @@
+package lepo.bot.audio;
+
+import lombok.Value;
+
+/**
+ * Limits applied to the queue of every guild.
+ */
+@Value
+public class QueueLimits {
+
+    /**
+     * What to do when an item arrives and the queue is full.
+     */
+    public enum DropPolicy {
+        /**
+         * The item arriving is dropped.
+         */
+        DROP_NEWEST,
+        /**
+         * The oldest item of the least important priority queued is dropped, unless it is more important
+         * than the item arriving, which is dropped instead.
+         */
+        DROP_OLDEST
+    }
+
+    /**
+     * Items waiting in the queue, not counting the one playing.
+     */
+    int capacity;
+    DropPolicy dropPolicy;
+    /**
+     * /tts phrases accepted per minute, 0 for no limit.
+     */
+    int ttsPerMinute;
+
+}
@@ -0,0 +1,26 @@
+package lepo.bot.audio;
+
+/**
+ * Why something is played, most important first. The scheduler plays the queued items of a priority before
+ * those of the next one; greetings also interrupt the less important audio already playing.
+ */
+public enum TrackPriority {
+
+    /**
+     * Name and welcome or goodbye clip played when members come and go.
+     */
+    GREETING,
+    /**
+     * Clips asked for with the play buttons and commands.
+     */
+    CLIP,
+    /**
+     * Phrases asked for with /tts, also rate limited.
+     */
+    TTS;
+
+    boolean isMoreImportantThan(TrackPriority other) {
+        return ordinal() < other.ordinal();
+    }
+
+}
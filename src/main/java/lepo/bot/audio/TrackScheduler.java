@@ -4,56 +4,156 @@ import com.sedmelluq.discord.lavaplayer.player.AudioPlayer;
 import com.sedmelluq.discord.lavaplayer.player.event.AudioEventAdapter;
 import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
 import com.sedmelluq.discord.lavaplayer.track.AudioTrackEndReason;
+import lepo.bot.audio.opus.OpusFrames;
 import lombok.extern.slf4j.Slf4j;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
 import java.util.Arrays;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.Map;
 import java.util.Optional;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * This class schedules tracks for the audio player. It contains the queue of tracks.
+ * The queue also holds pre-demuxed {@link OpusFrames}, which are served packet by packet
+ * by the send handler instead of the player; only one of the two plays at a time.
+ * A track may carry its player volume as user data (see {@link Loudness}); the others play at pass-through volume.
+ *
+ * <p>The queue is bounded and ordered by {@link TrackPriority}: items of a priority play before those of the next
+ * one, in arrival order. A greeting interrupts a less important item playing, which is dropped. When the queue is
+ * full the {@link QueueLimits.DropPolicy} decides what is dropped, and /tts phrases are rate limited.</p>
+ *
+ * <p>What plays is kept in a single {@link Playback} slot, for tracks and frames alike. Starting an item first
+ * claims the idle slot with a compare-and-set, so two threads never both start something and a greeting
+ * preempts exactly the item it saw playing. The player is called only by the thread owning the slot and never
+ * while the queue lock is held: it calls back into the scheduler while holding its own lock.</p>
  */
 @Slf4j
 public class TrackScheduler extends AudioEventAdapter {
 
+    private static final long TTS_WINDOW_MS = TimeUnit.MINUTES.toMillis(1);
+
     private final AudioPlayer player;
-    private final BlockingQueue<AudioTrack> queue;
+    private final QueueLimits queueLimits;
+    private final Map<TrackPriority, Deque<Entry>> queues;
+    private final Deque<Long> ttsAccepted;
+    private final AtomicReference<Playback> playback;
+    private int queued;
+    private final AtomicLong dropped;
+    private final AtomicLong rateLimited;
+    private final AtomicLong preempted;
 
     /**
-     * @param player The audio player this scheduler uses
+     * @param player      The audio player this scheduler uses
+     * @param queueLimits the bound of the queue and the TTS rate
      */
-    public TrackScheduler(AudioPlayer player) {
+    public TrackScheduler(AudioPlayer player, QueueLimits queueLimits) {
         this.player = player;
-        this.queue = new LinkedBlockingQueue<>();
+        this.queueLimits = queueLimits;
+        this.queues = new EnumMap<>(TrackPriority.class);
+        Arrays.stream(TrackPriority.values()).forEach(priority -> queues.put(priority, new ArrayDeque<>()));
+        this.ttsAccepted = new ArrayDeque<>();
+        this.playback = new AtomicReference<>();
+        this.dropped = new AtomicLong();
+        this.rateLimited = new AtomicLong();
+        this.preempted = new AtomicLong();
+    }
+
+    /**
+     * Add the next track to queue or play right away if nothing is playing.
+     * A greeting also plays right away over less important audio; anything else arriving while something plays
+     * goes to the queue.
+     *
+     * @param track    The track to play or add to queue.
+     * @param priority why the track is played
+     */
+    public void queue(AudioTrack track, TrackPriority priority) {
+        enqueue(new Entry(track, priority, getAudioTrackName(track)));
     }
 
     /**
-     * Add the next track to queue or play right away if nothing is in the queue.
-     * Calling startTrack with the noInterrupt set to true will start the track only if nothing is currently playing. If
-     * something is playing, it returns false and does nothing. In that case the player was already playing so this
-     * track goes to the queue instead.
+     * Plays the packets right away if nothing is playing, otherwise adds them to the queue.
      *
-     * @param track The track to play or add to queue.
+     * @param opusFrames the packets to play
+     * @param name       the clip name, for logging
+     * @param priority   why the clip is played
      */
-    public void queue(AudioTrack track) {
-        if (!player.startTrack(track, true)) {
-            if (queue.offer(track)) {
-                log.info("Track {} added to queue", getAudioTrackName(track));
+    public void queue(OpusFrames opusFrames, String name, TrackPriority priority) {
+        enqueue(new Entry(opusFrames, priority, name));
+    }
+
+    /**
+     * Takes a /tts phrase from the per-minute budget of the guild.
+     *
+     * @return whether the phrase may be played; if not it is counted as rate limited
+     */
+    public boolean tryAcquireTts() {
+        if (queueLimits.getTtsPerMinute() <= 0) {
+            return true;
+        }
+        long now = System.currentTimeMillis();
+        synchronized (ttsAccepted) {
+            while (!ttsAccepted.isEmpty() && now - ttsAccepted.peekFirst() >= TTS_WINDOW_MS) {
+                ttsAccepted.pollFirst();
             }
+            if (ttsAccepted.size() < queueLimits.getTtsPerMinute()) {
+                ttsAccepted.addLast(now);
+                return true;
+            }
+        }
+        rateLimited.incrementAndGet();
+        log.info("TTS rate limit of {} per minute reached", queueLimits.getTtsPerMinute());
+        return false;
+    }
+
+    /**
+     * Called by the send handler every 20 ms before asking the player.
+     *
+     * @return the next packet of the frames being played, or null when the player should provide the audio
+     */
+    public ByteBuffer nextOpusPacket() {
+        Playback current = playback.get();
+        if (current == null || current.cursor == null) {
+            return null;
+        }
+        if (current.cursor.hasNext()) {
+            return current.cursor.next();
+        }
+        if (playback.compareAndSet(current, null)) {
+            nextTrack();
         }
+        return nextOpusPacket();
     }
 
     /**
-     * Start the next track, stopping the current one if it is playing.
-     * Start the next track, regardless of if something is already playing or not. In case queue was empty, we are
-     * giving null to startTrack, which is a valid argument and will simply stop the player.
-     * StartTrack:
-     * true:  does not interrupt a track that is already playing. If there is an active track, the method returns `false` immediately and makes no changes.
-     * false: does interrupt the current track (if any) and starts/sets the new track (or stops playback if `track == null`).
+     * Start the most important queued item if nothing is playing.
+     * The idle slot is claimed before polling, so concurrent calls start one item and keep the queue order;
+     * when the queue turns out empty the slot is released and the queue checked again, so an item offered
+     * meanwhile is not left waiting.
      */
     public void nextTrack() {
-        player.startTrack(queue.poll(), true); //era false - testo true
+        Playback claim = new Playback(null);
+        while (playback.compareAndSet(null, claim)) {
+            Entry next = poll();
+            if (next != null) {
+                begin(claim, next);
+                return;
+            }
+            playback.compareAndSet(claim, null);
+            if (getQueuedCount() == 0) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void onTrackStart(AudioPlayer player, AudioTrack track) {
+        player.setVolume(Optional.ofNullable(track.getUserData(Integer.class)).orElse(Loudness.PASS_THROUGH_VOLUME));
     }
 
     /**
@@ -61,11 +161,14 @@ public class TrackScheduler extends AudioEventAdapter {
      */
     @Override
     public void onTrackEnd(AudioPlayer player, AudioTrack track, AudioTrackEndReason endReason) {
+        Playback current = playback.get();
+        if (current != null && current.plays(track)) {
+            playback.compareAndSet(current, null);
+        }
         if (endReason.mayStartNext) {
             nextTrack();
             log.info("Track {} {}", getAudioTrackName(track), endReason.name());
         }
-
     }
 
     private String getAudioTrackName(AudioTrack track) {
@@ -81,8 +184,170 @@ public class TrackScheduler extends AudioEventAdapter {
     }
 
     public void clearQueueAndStop() {
-        queue.clear();
+        synchronized (queues) {
+            queues.values().forEach(Deque::clear);
+            queued = 0;
+        }
+        playback.set(null);
         player.stopTrack();
     }
 
-}
\ No newline at end of file
+    public int getQueuedCount() {
+        synchronized (queues) {
+            return queued;
+        }
+    }
+
+    /**
+     * @return items dropped because the queue was full
+     */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public long getRateLimitedCount() {
+        return rateLimited.get();
+    }
+
+    public long getPreemptedCount() {
+        return preempted.get();
+    }
+
+    /**
+     * Plays the item if the player is idle or, for a greeting, busy with less important audio; otherwise queues it
+     * and starts the queue in case the player went idle meanwhile.
+     */
+    private void enqueue(Entry entry) {
+        Playback claim = new Playback(null);
+        if (playback.compareAndSet(null, claim) || preempt(entry, claim)) {
+            begin(claim, entry);
+            return;
+        }
+        offer(entry);
+        nextTrack();
+    }
+
+    /**
+     * Takes the slot from the less important item playing, which is dropped, if the entry is a greeting.
+     *
+     * @return whether the slot now holds the claim
+     */
+    private boolean preempt(Entry entry, Playback claim) {
+        Playback current = playback.get();
+        if (entry.priority != TrackPriority.GREETING || current == null || current.entry == null
+                || !entry.priority.isMoreImportantThan(current.entry.priority) || !playback.compareAndSet(current, claim)) {
+            return false;
+        }
+        log.info("Greeting {} interrupts {} audio", entry.name, current.entry.priority);
+        preempted.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Plays the item in the slot claimed for it. Whatever the player still holds is stale, since the slot was free
+     * or taken from it: a track replaces it, frames stop it while the slot is still only claimed, as frames may end
+     * and let the next track start as soon as they are published. If the queue was cleared meanwhile the claim is
+     * gone and the item is not played.
+     */
+    private void begin(Playback claim, Entry entry) {
+        boolean track = entry.item instanceof AudioTrack;
+        if (!track && player.getPlayingTrack() != null) {
+            player.stopTrack();
+        }
+        if (!playback.compareAndSet(claim, new Playback(entry))) {
+            return;
+        }
+        log.info("Playing {} {}", entry.priority, entry.name);
+        if (track) {
+            player.startTrack((AudioTrack) entry.item, false);
+        }
+    }
+
+    private void offer(Entry entry) {
+        Entry evicted = null;
+        synchronized (queues) {
+            if (queued >= queueLimits.getCapacity()) {
+                evicted = queueLimits.getDropPolicy() == QueueLimits.DropPolicy.DROP_OLDEST ? evictFor(entry) : entry;
+                if (evicted == entry) {
+                    entry = null;
+                }
+            }
+            if (entry != null) {
+                queues.get(entry.priority).addLast(entry);
+                queued++;
+                log.info("{} {} added to queue", entry.priority, entry.name);
+            }
+        }
+        Optional.ofNullable(evicted).ifPresent(drop -> {
+            dropped.incrementAndGet();
+            log.info("Queue full, {} {} dropped", drop.priority, drop.name);
+        });
+    }
+
+    /**
+     * @return the oldest queued item of the least important priority not more important than the entry, removed
+     * from the queue, or the entry itself if everything queued is more important
+     */
+    private Entry evictFor(Entry entry) {
+        TrackPriority[] priorities = TrackPriority.values();
+        for (int i = priorities.length - 1; i >= 0 && !priorities[i].isMoreImportantThan(entry.priority); i--) {
+            Entry oldest = queues.get(priorities[i]).pollFirst();
+            if (oldest != null) {
+                queued--;
+                return oldest;
+            }
+        }
+        return entry;
+    }
+
+    private Entry poll() {
+        synchronized (queues) {
+            for (Deque<Entry> queue : queues.values()) {
+                Entry next = queue.pollFirst();
+                if (next != null) {
+                    queued--;
+                    return next;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * A queued {@link AudioTrack} or {@link OpusFrames}.
+     */
+    private static final class Entry {
+
+        private final Object item;
+        private final TrackPriority priority;
+        private final String name;
+
+        private Entry(Object item, TrackPriority priority, String name) {
+            this.item = item;
+            this.priority = priority;
+            this.name = name;
+        }
+
+    }
+
+    /**
+     * What holds the player: the entry playing, with its cursor if it is made of frames, or a claim on the slot
+     * while an item is being started. Each instance is compared by identity, so a stale claim never matches.
+     */
+    private static final class Playback {
+
+        private final Entry entry;
+        private final OpusFrames.Cursor cursor;
+
+        private Playback(Entry entry) {
+            this.entry = entry;
+            this.cursor = entry != null && entry.item instanceof OpusFrames ? ((OpusFrames) entry.item).cursor() : null;
+        }
+
+        private boolean plays(AudioTrack track) {
+            return entry != null && entry.item == track;
+        }
+
+    }
+
+}
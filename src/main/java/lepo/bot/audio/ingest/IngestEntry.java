@@ -0,0 +1,58 @@
+package lepo.bot.audio.ingest;
+
+import lepo.bot.audio.AudioCategory;
+import lombok.Value;
+
+import java.util.Optional;
+
+/**
+ * One line of the ingest report: what the ingest stage did with a clip of the library.
+ */
+@Value
+public class IngestEntry {
+
+    private static final String SEPARATOR = "\t";
+
+    AudioCategory category;
+    String name;
+    String sha256;
+    Action action;
+    String output;
+    String details;
+
+    public enum Action {
+        /**
+         * Already in pass-through format, played from its original file.
+         */
+        KEPT,
+        /**
+         * Transcoded and/or trimmed into the normalized directory.
+         */
+        NORMALIZED,
+        /**
+         * Same content as another clip of the category, left out of the library.
+         */
+        DUPLICATE,
+        /**
+         * Could not be normalized, played from its original file.
+         */
+        FAILED
+    }
+
+    String toLine() {
+        return String.join(SEPARATOR, category.name(), name, sha256, action.name(), output, details);
+    }
+
+    static Optional<IngestEntry> fromLine(String line) {
+        String[] fields = line.split(SEPARATOR, -1);
+        if (line.startsWith("#") || fields.length != 6) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(new IngestEntry(AudioCategory.valueOf(fields[0]), fields[1], fields[2], Action.valueOf(fields[3]), fields[4], fields[5]));
+        } catch (IllegalArgumentException e) {
+            return Optional.empty();
+        }
+    }
+
+}
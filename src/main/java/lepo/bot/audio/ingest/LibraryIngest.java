@@ -0,0 +1,306 @@
+package lepo.bot.audio.ingest;
+
+import lepo.bot.audio.AudioCategory;
+import lepo.bot.audio.AudioFiles;
+import lepo.bot.audio.LibraryManifest;
+import lepo.bot.audio.Loudness;
+import lepo.bot.audio.opus.OggOpusDemuxer;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Startup stage bringing the library to the format lavaplayer passes through to Discord without re-encoding:
+ * Ogg Opus, stereo, single frame 20 ms packets.
+ *
+ * <p>Non conforming clips are transcoded with ffmpeg into {@code <volume>/normalized/<category>},
+ * leading silence is trimmed, and clips with the same content as another clip of the same category are
+ * left out. The integrated loudness (EBU R128) is measured in the same ffmpeg pass and stored in the
+ * {@link LibraryManifest}; clips off the {@link Loudness} target get the gain applied while transcoding,
+ * so they still play as pass-through opus. Every decision is written to a tab separated report; clips whose hash in the {@link LibraryManifest}
+ * did not change since the previous report are not read again. Without ffmpeg the library is only deduplicated.</p>
+ */
+@Slf4j
+public class LibraryIngest {
+
+    private static final String REPORT_HEADER = "#category\tname\tsha256\taction\toutput\tdetails";
+    private static final String SILENCE_LEVEL = "-50dB";
+    private static final double MIN_TRIMMED_SILENCE_SECONDS = 0.05;
+    private static final long FFMPEG_TIMEOUT_SECONDS = 120;
+    private static final int PASS_THROUGH_CHANNELS = 2;
+    private static final Pattern SILENCE_START = Pattern.compile("silence_start: (-?[0-9.]+)");
+    private static final Pattern SILENCE_END = Pattern.compile("silence_end: ([0-9.]+)");
+    private static final Pattern INTEGRATED_LOUDNESS = Pattern.compile("I:\\s+(-?[0-9.]+) LUFS");
+    private static final double MAX_INGEST_GAIN_DB = 12;
+
+    private final Path normalizedDirectory;
+    private final Path reportPath;
+    private final String ffmpeg;
+    private final LibraryManifest libraryManifest;
+
+    /**
+     * @param normalizedDirectory where transcoded clips are written, one sub directory per category
+     * @param reportPath          the ingest report, also read back to skip unchanged clips
+     * @param ffmpeg              the ffmpeg executable
+     * @param libraryManifest     source of the clip hashes, so unchanged clips are not read
+     */
+    public LibraryIngest(Path normalizedDirectory, Path reportPath, String ffmpeg, LibraryManifest libraryManifest) {
+        this.normalizedDirectory = normalizedDirectory;
+        this.reportPath = reportPath;
+        this.ffmpeg = ffmpeg;
+        this.libraryManifest = libraryManifest;
+    }
+
+    /**
+     * @param audioFiles the library as found in the configured directories
+     * @return the library to play: normalized clips in place of the originals, duplicates removed
+     */
+    public AudioFiles ingest(AudioFiles audioFiles) {
+        Map<String, IngestEntry> previousEntries = readReport();
+        boolean ffmpegAvailable = isFfmpegAvailable();
+        if (!ffmpegAvailable) {
+            log.info("Ingest: {} not available, clips are only deduplicated", ffmpeg);
+        }
+        List<IngestEntry> entries = new ArrayList<>();
+        Map<AudioCategory, List<File>> ingested = new EnumMap<>(AudioCategory.class);
+        ingested.put(AudioCategory.PLAY, ingest(AudioCategory.PLAY, audioFiles.getPlayAudioFileList(), previousEntries, ffmpegAvailable, entries));
+        ingested.put(AudioCategory.WELCOME, ingest(AudioCategory.WELCOME, audioFiles.getWelcomeAudioFileList(), previousEntries, ffmpegAvailable, entries));
+        ingested.put(AudioCategory.GOODBYE, ingest(AudioCategory.GOODBYE, audioFiles.getGoodbyeAudioFileList(), previousEntries, ffmpegAvailable, entries));
+        ingested.put(AudioCategory.CUSTOM, ingest(AudioCategory.CUSTOM, audioFiles.getCustomAudioFileList(), previousEntries, ffmpegAvailable, entries));
+        writeReport(entries);
+        Map<IngestEntry.Action, Long> counts = entries.stream().collect(Collectors.groupingBy(IngestEntry::getAction, Collectors.counting()));
+        log.info("Ingest: {} clips, {}", entries.size(), counts);
+        return new AudioFiles(ingested.get(AudioCategory.PLAY), ingested.get(AudioCategory.WELCOME),
+                ingested.get(AudioCategory.GOODBYE), ingested.get(AudioCategory.CUSTOM));
+    }
+
+    private List<File> ingest(AudioCategory category, List<File> files, Map<String, IngestEntry> previousEntries,
+                              boolean ffmpegAvailable, List<IngestEntry> entries) {
+        Map<String, String> namesByHash = new HashMap<>();
+        List<File> ingested = new ArrayList<>();
+        for (File file : files) {
+            String sha256 = libraryManifest.describe(file).getSha256();
+            if (sha256.isEmpty()) {
+                ingested.add(file);
+                continue;
+            }
+            String original = namesByHash.putIfAbsent(sha256, file.getName());
+            IngestEntry entry = original != null
+                    ? new IngestEntry(category, file.getName(), sha256, IngestEntry.Action.DUPLICATE, "", "same content as " + original)
+                    : Optional.ofNullable(previousEntries.get(key(category, file.getName())))
+                    .filter(previous -> previous.getSha256().equals(sha256))
+                    .filter(previous -> previous.getAction() != IngestEntry.Action.DUPLICATE)
+                    .filter(previous -> Files.exists(Path.of(previous.getOutput())))
+                    .filter(previous -> !ffmpegAvailable || previous.getAction() == IngestEntry.Action.FAILED
+                            || !Double.isNaN(libraryManifest.describe(new File(previous.getOutput())).getLoudnessLufs()))
+                    .orElseGet(() -> analyse(category, file, sha256, ffmpegAvailable));
+            entries.add(entry);
+            if (entry.getAction() != IngestEntry.Action.DUPLICATE) {
+                ingested.add(new File(entry.getOutput()));
+            }
+        }
+        return ingested;
+    }
+
+    private IngestEntry analyse(AudioCategory category, File file, String sha256, boolean ffmpegAvailable) {
+        ByteBuffer ogg;
+        try {
+            ogg = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        } catch (IOException e) {
+            return new IngestEntry(category, file.getName(), sha256, IngestEntry.Action.FAILED, file.getAbsolutePath(), "not readable: " + e.getMessage());
+        }
+        int channels = OggOpusDemuxer.readChannelCount(ogg);
+        boolean twentyMsPackets = OggOpusDemuxer.demux(ogg).isPresent();
+        boolean passThrough = channels == PASS_THROUGH_CHANNELS && twentyMsPackets;
+        String format = String.format("channels %d, 20 ms packets %s", channels, twentyMsPackets ? "yes" : "no");
+        if (!ffmpegAvailable) {
+            return new IngestEntry(category, file.getName(), sha256, IngestEntry.Action.KEPT, file.getAbsolutePath(),
+                    passThrough ? format : format + ", not normalized without ffmpeg");
+        }
+        Measurement measurement = measure(file);
+        boolean trim = measurement.leadingSilence >= MIN_TRIMMED_SILENCE_SECONDS;
+        double gainDb = Math.max(-MAX_INGEST_GAIN_DB, Math.min(MAX_INGEST_GAIN_DB, Loudness.gainDb(measurement.loudnessLufs)));
+        String details = format + (Double.isNaN(measurement.loudnessLufs) ? "" : String.format(", %.1f LUFS", measurement.loudnessLufs));
+        if (passThrough && !trim && gainDb == 0) {
+            libraryManifest.recordLoudness(file, measurement.loudnessLufs);
+            return new IngestEntry(category, file.getName(), sha256, IngestEntry.Action.KEPT, file.getAbsolutePath(), details);
+        }
+        Path output = normalizedDirectory.resolve(category.name().toLowerCase()).resolve(file.getName());
+        String normalizedDetails = details + (trim ? String.format(", trimmed %.2f s of silence", measurement.leadingSilence) : "")
+                + (gainDb != 0 ? String.format(", gain %+.1f dB", gainDb) : "");
+        Optional<Path> transcoded = transcode(file.toPath(), output, trim, gainDb);
+        if (transcoded.isEmpty()) {
+            libraryManifest.recordLoudness(file, measurement.loudnessLufs);
+            return new IngestEntry(category, file.getName(), sha256, IngestEntry.Action.FAILED, file.getAbsolutePath(), normalizedDetails + ", ffmpeg failed");
+        }
+        libraryManifest.recordLoudness(output.toFile(), measurement.loudnessLufs + gainDb);
+        return new IngestEntry(category, file.getName(), sha256, IngestEntry.Action.NORMALIZED, output.toString(), normalizedDetails);
+    }
+
+    /**
+     * Decodes the clip once to find both its leading silence and its integrated loudness.
+     */
+    private Measurement measure(File file) {
+        Optional<String> output = runFfmpeg(List.of("-hide_banner", "-nostats", "-i", file.getAbsolutePath(),
+                "-af", "silencedetect=noise=" + SILENCE_LEVEL + ":d=" + MIN_TRIMMED_SILENCE_SECONDS + ",ebur128", "-f", "null", "-"));
+        double leadingSilence = output
+                .filter(text -> {
+                    Matcher start = SILENCE_START.matcher(text);
+                    return start.find() && Double.parseDouble(start.group(1)) <= 0.001;
+                })
+                .map(SILENCE_END::matcher)
+                .filter(Matcher::find)
+                .map(end -> Double.parseDouble(end.group(1)))
+                .orElse(0.0);
+        double loudnessLufs = output
+                .map(INTEGRATED_LOUDNESS::matcher)
+                .map(matcher -> {
+                    String last = null;
+                    while (matcher.find()) {
+                        last = matcher.group(1);
+                    }
+                    return last;
+                })
+                .map(Double::parseDouble)
+                .orElse(Double.NaN);
+        return new Measurement(leadingSilence, loudnessLufs);
+    }
+
+    private Optional<Path> transcode(Path input, Path output, boolean trim, double gainDb) {
+        List<String> arguments = new ArrayList<>(List.of("-hide_banner", "-nostats", "-y", "-i", input.toString()));
+        List<String> filters = new ArrayList<>();
+        if (trim) {
+            filters.add("silenceremove=start_periods=1:start_threshold=" + SILENCE_LEVEL);
+        }
+        if (gainDb != 0) {
+            filters.add(String.format(Locale.ROOT, "volume=%.1fdB", gainDb));
+        }
+        if (gainDb > 0) {
+            filters.add("alimiter=limit=0.9");
+        }
+        if (!filters.isEmpty()) {
+            arguments.addAll(List.of("-af", String.join(",", filters)));
+        }
+        Path tmp = output.resolveSibling(output.getFileName() + ".tmp.opus");
+        arguments.addAll(List.of("-c:a", "libopus", "-b:a", "96k", "-ar", "48000", "-ac", "2", "-frame_duration", "20", "-f", "ogg", tmp.toString()));
+        try {
+            Files.createDirectories(output.getParent());
+            if (runFfmpeg(arguments).isEmpty()) {
+                Files.deleteIfExists(tmp);
+                return Optional.empty();
+            }
+            Files.move(tmp, output, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return Optional.of(output);
+        } catch (IOException e) {
+            log.info("Ingest: cannot write {}: {}", output, e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    private boolean isFfmpegAvailable() {
+        return runFfmpeg(List.of("-version")).isPresent();
+    }
+
+    /**
+     * @return the combined output of ffmpeg, or empty if it could not run, failed or timed out
+     */
+    private Optional<String> runFfmpeg(List<String> arguments) {
+        List<String> command = new ArrayList<>();
+        command.add(ffmpeg);
+        command.addAll(arguments);
+        Path output = null;
+        try {
+            output = Files.createTempFile("ffmpeg", ".log");
+            Process process = new ProcessBuilder(command)
+                    .redirectErrorStream(true)
+                    .redirectOutput(output.toFile())
+                    .start();
+            if (!process.waitFor(FFMPEG_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+                return Optional.empty();
+            }
+            return process.exitValue() == 0 ? Optional.of(Files.readString(output, StandardCharsets.UTF_8)) : Optional.empty();
+        } catch (IOException e) {
+            return Optional.empty();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Optional.empty();
+        } finally {
+            deleteQuietly(output);
+        }
+    }
+
+    private Map<String, IngestEntry> readReport() {
+        if (!Files.exists(reportPath)) {
+            return Map.of();
+        }
+        try {
+            return Files.readAllLines(reportPath, StandardCharsets.UTF_8).stream()
+                    .map(IngestEntry::fromLine)
+                    .flatMap(Optional::stream)
+                    .collect(Collectors.toMap(entry -> key(entry.getCategory(), entry.getName()), Function.identity(), (first, second) -> second));
+        } catch (IOException e) {
+            log.info("Ingest: cannot read report {}: {}", reportPath, e.getMessage());
+            return Map.of();
+        }
+    }
+
+    private void writeReport(List<IngestEntry> entries) {
+        Path tmp = reportPath.resolveSibling(reportPath.getFileName() + ".tmp");
+        List<String> lines = new ArrayList<>();
+        lines.add(REPORT_HEADER);
+        entries.forEach(entry -> lines.add(entry.toLine()));
+        try {
+            Files.write(tmp, lines, StandardCharsets.UTF_8);
+            Files.move(tmp, reportPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.info("Ingest: cannot write report {}: {}", reportPath, e.getMessage());
+        }
+    }
+
+    private static String key(AudioCategory category, String name) {
+        return category.name() + "/" + name;
+    }
+
+    private static void deleteQuietly(Path path) {
+        if (path == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.info("Ingest: cannot delete {}", path);
+        }
+    }
+
+    private static final class Measurement {
+
+        private final double leadingSilence;
+        private final double loudnessLufs;
+
+        private Measurement(double leadingSilence, double loudnessLufs) {
+            this.leadingSilence = leadingSilence;
+            this.loudnessLufs = loudnessLufs;
+        }
+
+    }
+
+}
@@ -0,0 +1,113 @@
+package lepo.bot.audio.opus;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Optional;
+
+/**
+ * Splits an Ogg Opus file into its audio packets, without decoding them.
+ * Only files made of single frame 20 ms packets are accepted, because Discord expects exactly one 20 ms packet
+ * per send; any other layout is left to lavaplayer.
+ */
+public final class OggOpusDemuxer {
+
+    private static final int CAPTURE_PATTERN = 0x5367674F;
+    private static final int PAGE_HEADER_SIZE = 27;
+    private static final int HEADER_PACKETS = 2;
+    private static final long OPUS_HEAD_MAGIC = 0x646165487375704FL;
+    private static final int OPUS_HEAD_CHANNELS_OFFSET = 9;
+
+    private OggOpusDemuxer() {
+    }
+
+    /**
+     * @param ogg the whole Ogg Opus file
+     * @return the audio packets, or empty if the file is not made of 20 ms single frame packets
+     */
+    public static Optional<OpusFrames> demux(ByteBuffer ogg) {
+        ByteBuffer input = ogg.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        ByteArrayOutputStream packetBytes = new ByteArrayOutputStream(input.remaining());
+        int[] offsets = new int[64];
+        int packetCount = 0;
+        int packetsSeen = 0;
+        ByteArrayOutputStream packet = new ByteArrayOutputStream(512);
+        while (input.remaining() >= PAGE_HEADER_SIZE) {
+            if (input.getInt(input.position()) != CAPTURE_PATTERN) {
+                return Optional.empty();
+            }
+            int segmentCount = input.get(input.position() + 26) & 0xFF;
+            int lacingStart = input.position() + PAGE_HEADER_SIZE;
+            int dataPosition = lacingStart + segmentCount;
+            if (dataPosition > input.limit()) {
+                return Optional.empty();
+            }
+            for (int segment = 0; segment < segmentCount; segment++) {
+                int lacing = input.get(lacingStart + segment) & 0xFF;
+                if (dataPosition + lacing > input.limit()) {
+                    return Optional.empty();
+                }
+                for (int i = 0; i < lacing; i++) {
+                    packet.write(input.get(dataPosition + i));
+                }
+                dataPosition += lacing;
+                if (lacing < 255) {
+                    if (packetsSeen++ >= HEADER_PACKETS && packet.size() > 0) {
+                        byte[] audioPacket = packet.toByteArray();
+                        if (!isSingle20MsFrame(audioPacket[0])) {
+                            return Optional.empty();
+                        }
+                        if (packetCount + 1 >= offsets.length) {
+                            offsets = Arrays.copyOf(offsets, offsets.length * 2);
+                        }
+                        packetBytes.writeBytes(audioPacket);
+                        offsets[++packetCount] = packetBytes.size();
+                    }
+                    packet.reset();
+                }
+            }
+            input.position(dataPosition);
+        }
+        if (packetCount == 0) {
+            return Optional.empty();
+        }
+        return Optional.of(new OpusFrames(packetBytes.toByteArray(), Arrays.copyOf(offsets, packetCount + 1)));
+    }
+
+    /**
+     * Reads the channel count from the OpusHead packet, which must fill the first page (RFC 7845, 5.1).
+     *
+     * @param ogg the whole Ogg Opus file
+     * @return the channel count, or -1 if the file does not start with an OpusHead page
+     */
+    public static int readChannelCount(ByteBuffer ogg) {
+        ByteBuffer input = ogg.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        int start = input.position();
+        if (input.remaining() < PAGE_HEADER_SIZE || input.getInt(start) != CAPTURE_PATTERN) {
+            return -1;
+        }
+        int dataPosition = start + PAGE_HEADER_SIZE + (input.get(start + 26) & 0xFF);
+        if (dataPosition + OPUS_HEAD_CHANNELS_OFFSET >= input.limit() || input.getLong(dataPosition) != OPUS_HEAD_MAGIC) {
+            return -1;
+        }
+        return input.get(dataPosition + OPUS_HEAD_CHANNELS_OFFSET) & 0xFF;
+    }
+
+    /**
+     * Reads the TOC byte of the packet (RFC 6716, 3.1): frame count code 0 and a 20 ms frame size.
+     */
+    static boolean isSingle20MsFrame(byte toc) {
+        int config = (toc & 0xFF) >> 3;
+        boolean twentyMs;
+        if (config < 12) {
+            twentyMs = config % 4 == 1;
+        } else if (config < 16) {
+            twentyMs = config % 2 == 1;
+        } else {
+            twentyMs = config % 4 == 3;
+        }
+        return twentyMs && (toc & 0x03) == 0;
+    }
+
+}
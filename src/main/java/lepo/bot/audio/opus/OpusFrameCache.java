@@ -0,0 +1,125 @@
+package lepo.bot.audio.opus;
+
+import lepo.bot.audio.AudioCatalog;
+import lepo.bot.audio.AudioCatalogListener;
+import lepo.bot.audio.AudioCategory;
+import lepo.bot.audio.AudioClip;
+import lepo.bot.audio.Loudness;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Welcome and goodbye clips demuxed once into {@link OpusFrames}, kept within a memory budget.
+ * These short clips are played on almost every voice event; serving their packets directly skips
+ * lavaplayer container parsing and frame buffer copies. Clips over budget or not made of plain 20 ms
+ * packets are simply not cached and keep playing through lavaplayer.
+ */
+@Slf4j
+public class OpusFrameCache implements AudioCatalogListener {
+
+    private static final List<AudioCategory> CACHED_CATEGORIES = List.of(AudioCategory.WELCOME, AudioCategory.GOODBYE);
+
+    private final long budgetBytes;
+    private final Map<AudioClip, OpusFrames> framesByClip;
+    private final AtomicLong usedBytes;
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    private final AtomicLong rejected;
+
+    /**
+     * @param budgetBytes maximum memory used by the cached packets
+     */
+    public OpusFrameCache(long budgetBytes) {
+        this.budgetBytes = budgetBytes;
+        this.framesByClip = new ConcurrentHashMap<>();
+        this.usedBytes = new AtomicLong();
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+        this.rejected = new AtomicLong();
+    }
+
+    /**
+     * Demuxes the welcome and goodbye clips not cached yet, until the budget is used up.
+     */
+    public synchronized void preload(AudioCatalog audioCatalog) {
+        clips(audioCatalog)
+                .filter(audioClip -> !framesByClip.containsKey(audioClip))
+                .forEach(this::load);
+        log.info("Opus frame cache: {} clips, {} KB of {} KB", framesByClip.size(), usedBytes.get() / 1024, budgetBytes / 1024);
+    }
+
+    public Optional<OpusFrames> get(AudioClip audioClip) {
+        if (!CACHED_CATEGORIES.contains(audioClip.getCategory())) {
+            return Optional.empty();
+        }
+        Optional<OpusFrames> opusFrames = Optional.ofNullable(framesByClip.get(audioClip));
+        (opusFrames.isPresent() ? hits : misses).incrementAndGet();
+        return opusFrames;
+    }
+
+    /**
+     * Releases the frames of removed or replaced clips and demuxes the new ones.
+     */
+    @Override
+    public synchronized void onCatalogChanged(AudioCatalog audioCatalog) {
+        Set<AudioClip> audioClips = clips(audioCatalog).collect(Collectors.toSet());
+        framesByClip.keySet().stream()
+                .filter(audioClip -> !audioClips.contains(audioClip))
+                .collect(Collectors.toList())
+                .forEach(this::remove);
+        preload(audioCatalog);
+    }
+
+    public void logMetrics() {
+        log.info("Opus frame cache: clips {}, memory {} KB of {} KB, hits {}, misses {}, rejected {}",
+                framesByClip.size(), usedBytes.get() / 1024, budgetBytes / 1024, hits.get(), misses.get(), rejected.get());
+    }
+
+    private void load(AudioClip audioClip) {
+        if (!Loudness.isPassThrough(audioClip)) {
+            rejected.incrementAndGet();
+            log.info("Clip {} needs a playback gain, left to lavaplayer", audioClip.getId());
+            return;
+        }
+        try {
+            Optional<OpusFrames> opusFrames = OggOpusDemuxer.demux(ByteBuffer.wrap(Files.readAllBytes(Path.of(audioClip.getPath()))));
+            if (opusFrames.isEmpty()) {
+                rejected.incrementAndGet();
+                log.info("Clip {} is not made of 20 ms opus packets, left to lavaplayer", audioClip.getId());
+                return;
+            }
+            if (usedBytes.get() + opusFrames.get().getMemoryBytes() > budgetBytes) {
+                rejected.incrementAndGet();
+                log.info("Clip {} does not fit the opus frame cache budget", audioClip.getId());
+                return;
+            }
+            framesByClip.put(audioClip, opusFrames.get());
+            usedBytes.addAndGet(opusFrames.get().getMemoryBytes());
+        } catch (IOException e) {
+            rejected.incrementAndGet();
+            log.info("Cannot read clip {}: {}", audioClip.getId(), e.getMessage());
+        }
+    }
+
+    private void remove(AudioClip audioClip) {
+        Optional.ofNullable(framesByClip.remove(audioClip))
+                .ifPresent(opusFrames -> usedBytes.addAndGet(-opusFrames.getMemoryBytes()));
+    }
+
+    private static Stream<AudioClip> clips(AudioCatalog audioCatalog) {
+        return CACHED_CATEGORIES.stream().flatMap(category -> audioCatalog.getClips(category).stream());
+    }
+
+}
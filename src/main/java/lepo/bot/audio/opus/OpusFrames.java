@@ -0,0 +1,80 @@
+package lepo.bot.audio.opus;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Raw 20 ms Opus packets of one clip, stored back to back in a single array.
+ * Packet {@code i} spans {@code offsets[i]} to {@code offsets[i + 1]}.
+ * The array is on heap on purpose: JDA only sends buffers backed by an accessible array,
+ * so a view over it reaches the encryption step without any intermediate copy.
+ */
+public final class OpusFrames {
+
+    private final byte[] packets;
+    private final int[] offsets;
+
+    OpusFrames(byte[] packets, int[] offsets) {
+        this.packets = packets;
+        this.offsets = offsets;
+    }
+
+    /**
+     * @return the packets of the first clip followed by those of the second, as a single clip
+     */
+    public static OpusFrames concat(OpusFrames first, OpusFrames second) {
+        byte[] packets = Arrays.copyOf(first.packets, first.packets.length + second.packets.length);
+        System.arraycopy(second.packets, 0, packets, first.packets.length, second.packets.length);
+        int[] offsets = Arrays.copyOf(first.offsets, first.size() + second.size() + 1);
+        for (int i = 1; i <= second.size(); i++) {
+            offsets[first.size() + i] = first.packets.length + second.offsets[i];
+        }
+        return new OpusFrames(packets, offsets);
+    }
+
+    public int size() {
+        return offsets.length - 1;
+    }
+
+    public long getDurationMs() {
+        return size() * 20L;
+    }
+
+    public int getMemoryBytes() {
+        return packets.length;
+    }
+
+    /**
+     * @return a cursor over the packets, to be used by one playback only
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Walks the packets with a single view of the shared array, so serving a frame allocates and copies nothing.
+     * The view must not be written to: it is shared with every other playback of the clip.
+     */
+    public final class Cursor {
+
+        private final ByteBuffer view = ByteBuffer.wrap(packets);
+        private int index;
+
+        public boolean hasNext() {
+            return index < size();
+        }
+
+        /**
+         * @return the next packet; the returned buffer is reused by the following call
+         */
+        public ByteBuffer next() {
+            view.clear();
+            view.position(offsets[index]);
+            view.limit(offsets[index + 1]);
+            index++;
+            return view;
+        }
+
+    }
+
+}
@@ -0,0 +1,72 @@
+package lepo.bot.audio.pack;
+
+import com.sedmelluq.discord.lavaplayer.tools.io.SeekableInputStream;
+import com.sedmelluq.discord.lavaplayer.track.info.AudioTrackInfoProvider;
+
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Seekable stream over a slice of the mapped {@link ClipPack}; reads are plain memory copies.
+ */
+class ByteBufferSeekableInputStream extends SeekableInputStream {
+
+    private final ByteBuffer buffer;
+
+    ByteBufferSeekableInputStream(ByteBuffer buffer) {
+        super(buffer.remaining(), 0);
+        this.buffer = buffer.slice();
+    }
+
+    @Override
+    public long getPosition() {
+        return buffer.position();
+    }
+
+    @Override
+    protected void seekHard(long position) {
+        buffer.position((int) position);
+    }
+
+    @Override
+    public boolean canSeekHard() {
+        return true;
+    }
+
+    @Override
+    public List<AudioTrackInfoProvider> getTrackInfoProviders() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public int read() {
+        return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) {
+        if (length == 0) {
+            return 0;
+        }
+        if (!buffer.hasRemaining()) {
+            return -1;
+        }
+        int count = Math.min(length, buffer.remaining());
+        buffer.get(bytes, offset, count);
+        return count;
+    }
+
+    @Override
+    public long skip(long count) {
+        int skipped = (int) Math.max(0, Math.min(count, buffer.remaining()));
+        buffer.position(buffer.position() + skipped);
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return buffer.remaining();
+    }
+
+}
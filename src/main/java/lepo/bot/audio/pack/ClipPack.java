@@ -0,0 +1,171 @@
+package lepo.bot.audio.pack;
+
+import lepo.bot.audio.AudioCatalog;
+import lepo.bot.audio.AudioCategory;
+import lepo.bot.audio.AudioClip;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+/**
+ * Every clip of the library in one file, mapped in memory once.
+ *
+ * <p>Layout: magic {@code LPAK}, version, entry count, then for each entry its key
+ * (length and UTF-8 bytes), offset and length, followed by the raw Ogg files back to back.
+ * Serving a clip is a slice of the mapped buffer: no open or read call per play,
+ * and the OS page cache keeps the hot clips resident.</p>
+ */
+@Slf4j
+public final class ClipPack {
+
+    private static final int MAGIC = 0x4C50414B;
+    private static final int VERSION = 1;
+
+    private final MappedByteBuffer mappedByteBuffer;
+    private final Map<String, long[]> entries;
+    private final long lastModified;
+
+    private ClipPack(MappedByteBuffer mappedByteBuffer, Map<String, long[]> entries, long lastModified) {
+        this.mappedByteBuffer = mappedByteBuffer;
+        this.entries = entries;
+        this.lastModified = lastModified;
+    }
+
+    public static String key(AudioClip audioClip) {
+        return audioClip.getCategory().name().toLowerCase() + "/" + audioClip.getId();
+    }
+
+    /**
+     * Rewrites the pack when it is missing, older than one of the clips or does not hold the same clips, then maps it.
+     *
+     * @param audioCatalog the clips to pack
+     * @param packPath     where the pack is kept
+     * @return the mapped pack
+     * @throws IOException if the pack cannot be written or mapped
+     */
+    public static ClipPack open(AudioCatalog audioCatalog, Path packPath) throws IOException {
+        List<AudioClip> audioClips = Arrays.stream(AudioCategory.values())
+                .flatMap(category -> audioCatalog.getClips(category).stream())
+                .collect(Collectors.toList());
+        Optional<ClipPack> current = mapIfValid(packPath);
+        boolean upToDate = current
+                .filter(clipPack -> clipPack.entries.keySet().equals(audioClips.stream().map(ClipPack::key).collect(Collectors.toSet())))
+                .filter(clipPack -> isNewerThanClips(packPath, audioClips))
+                .isPresent();
+        if (upToDate) {
+            log.info("Clip pack {} is up to date with {} clips", packPath, audioClips.size());
+            return current.get();
+        }
+        write(audioClips, packPath);
+        return map(packPath);
+    }
+
+    public Optional<ByteBuffer> slice(String key) {
+        return Optional.ofNullable(entries.get(key))
+                .map(entry -> {
+                    ByteBuffer duplicate = mappedByteBuffer.duplicate();
+                    duplicate.position((int) entry[0]);
+                    duplicate.limit((int) (entry[0] + entry[1]));
+                    return duplicate.slice();
+                });
+    }
+
+    /**
+     * @return whether the pack holds this version of the clip, i.e. the clip was not replaced after the pack was written
+     */
+    public boolean isCurrent(AudioClip audioClip) {
+        long[] entry = entries.get(key(audioClip));
+        return entry != null && entry[1] == audioClip.getSize() && audioClip.getLastModified() <= lastModified;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private static boolean isNewerThanClips(Path packPath, List<AudioClip> audioClips) {
+        long packModified = packPath.toFile().lastModified();
+        return audioClips.stream().allMatch(audioClip -> new File(audioClip.getPath()).lastModified() <= packModified);
+    }
+
+    private static void write(List<AudioClip> audioClips, Path packPath) throws IOException {
+        Path tmp = packPath.resolveSibling(packPath.getFileName() + ".tmp");
+        byte[][] keys = new byte[audioClips.size()][];
+        long headerSize = 3L * Integer.BYTES;
+        for (int i = 0; i < audioClips.size(); i++) {
+            keys[i] = key(audioClips.get(i)).getBytes(StandardCharsets.UTF_8);
+            headerSize += Short.BYTES + keys[i].length + Long.BYTES + Integer.BYTES;
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(audioClips.size());
+            long offset = headerSize;
+            for (int i = 0; i < audioClips.size(); i++) {
+                long length = Files.size(Path.of(audioClips.get(i).getPath()));
+                out.writeShort(keys[i].length);
+                out.write(keys[i]);
+                out.writeLong(offset);
+                out.writeInt((int) length);
+                offset += length;
+            }
+            if (offset > Integer.MAX_VALUE) {
+                throw new IOException("Clip pack larger than 2 GB, a single mapping cannot hold it");
+            }
+            for (AudioClip audioClip : audioClips) {
+                Files.copy(Path.of(audioClip.getPath()), (OutputStream) out);
+            }
+        }
+        Files.move(tmp, packPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        log.info("Clip pack {} written with {} clips", packPath, audioClips.size());
+    }
+
+    private static Optional<ClipPack> mapIfValid(Path packPath) {
+        if (!Files.exists(packPath)) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(map(packPath));
+        } catch (IOException | RuntimeException e) {
+            log.info("Clip pack {} is not readable, rebuilding it: {}", packPath, e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    private static ClipPack map(Path packPath) throws IOException {
+        try (FileChannel fileChannel = FileChannel.open(packPath, StandardOpenOption.READ)) {
+            MappedByteBuffer mappedByteBuffer = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, fileChannel.size());
+            if (mappedByteBuffer.getInt() != MAGIC || mappedByteBuffer.getInt() != VERSION) {
+                throw new IOException("Not a clip pack: " + packPath);
+            }
+            int count = mappedByteBuffer.getInt();
+            Map<String, long[]> entries = new HashMap<>(count * 2);
+            for (int i = 0; i < count; i++) {
+                byte[] key = new byte[mappedByteBuffer.getShort() & 0xFFFF];
+                mappedByteBuffer.get(key);
+                long offset = mappedByteBuffer.getLong();
+                int length = mappedByteBuffer.getInt();
+                entries.put(new String(key, StandardCharsets.UTF_8), new long[]{offset, length});
+            }
+            return new ClipPack(mappedByteBuffer, entries, packPath.toFile().lastModified());
+        }
+    }
+
+}
@@ -0,0 +1,123 @@
+package lepo.bot.audio.pack;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.source.AudioSourceManager;
+import com.sedmelluq.discord.lavaplayer.tools.Units;
+import com.sedmelluq.discord.lavaplayer.track.AudioItem;
+import com.sedmelluq.discord.lavaplayer.track.AudioReference;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrackInfo;
+import lepo.bot.audio.AudioCatalog;
+import lepo.bot.audio.AudioCatalogListener;
+import lepo.bot.audio.AudioCategory;
+import lepo.bot.audio.AudioClip;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Optional;
+
+/**
+ * Lavaplayer source for {@code pack://<category>/<id>} identifiers, served from the mapped {@link ClipPack}.
+ * The pack is built at startup only: when the catalog changes at runtime the mapping is kept as it is,
+ * clips added or replaced since are played from their files and the pack catches up on the next start.
+ */
+@Slf4j
+public class PackedAudioSourceManager implements AudioSourceManager, AudioCatalogListener {
+
+    public static final String PACK_PREFIX = "pack://";
+
+    private final Path packPath;
+    private volatile ClipPack clipPack;
+
+    public PackedAudioSourceManager(Path packPath) {
+        this.packPath = packPath;
+    }
+
+    static String keyOf(String identifier) {
+        return identifier.substring(PACK_PREFIX.length());
+    }
+
+    /**
+     * @param audioClip a clip of the catalog
+     * @return the pack identifier of the clip, or its file path when it is not packed
+     */
+    public String identifier(AudioClip audioClip) {
+        String key = ClipPack.key(audioClip);
+        return Optional.ofNullable(clipPack)
+                .filter(pack -> pack.isCurrent(audioClip))
+                .map(pack -> PACK_PREFIX + key)
+                .orElse(audioClip.getPath());
+    }
+
+    Optional<ByteBuffer> slice(String key) {
+        return Optional.ofNullable(clipPack).flatMap(pack -> pack.slice(key));
+    }
+
+    /**
+     * Keeps the current mapping, so no playback is interrupted and the library is not copied again.
+     */
+    @Override
+    public void onCatalogChanged(AudioCatalog audioCatalog) {
+        Optional.ofNullable(clipPack).ifPresent(pack -> log.info("Clip pack kept, {} clips play from their files until the next start",
+                Arrays.stream(AudioCategory.values())
+                        .flatMap(category -> audioCatalog.getClips(category).stream())
+                        .filter(audioClip -> !pack.isCurrent(audioClip))
+                        .count()));
+    }
+
+    /**
+     * Builds or reuses the pack of the catalog clips and maps it.
+     */
+    public void pack(AudioCatalog audioCatalog) {
+        try {
+            this.clipPack = ClipPack.open(audioCatalog, packPath);
+        } catch (IOException e) {
+            log.info("Cannot build clip pack {}, playing clips from their files: {}", packPath, e.getMessage());
+            this.clipPack = null;
+        }
+    }
+
+    @Override
+    public String getSourceName() {
+        return "pack";
+    }
+
+    @Override
+    public AudioItem loadItem(AudioPlayerManager manager, AudioReference reference) {
+        if (reference.identifier == null || !reference.identifier.startsWith(PACK_PREFIX)) {
+            return null;
+        }
+        String key = keyOf(reference.identifier);
+        if (slice(key).isEmpty()) {
+            return AudioReference.NO_TRACK;
+        }
+        String title = key.substring(key.indexOf('/') + 1);
+        return new PackedAudioTrack(new AudioTrackInfo(title, "pack", Units.DURATION_MS_UNKNOWN, reference.identifier, false, reference.identifier), this);
+    }
+
+    @Override
+    public boolean isTrackEncodable(AudioTrack track) {
+        return true;
+    }
+
+    @Override
+    public void encodeTrack(AudioTrack track, DataOutput output) {
+        // the identifier holds everything needed
+    }
+
+    @Override
+    public AudioTrack decodeTrack(AudioTrackInfo trackInfo, DataInput input) {
+        return new PackedAudioTrack(trackInfo, this);
+    }
+
+    @Override
+    public void shutdown() {
+        this.clipPack = null;
+    }
+
+}
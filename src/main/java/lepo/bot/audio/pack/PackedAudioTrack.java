@@ -0,0 +1,41 @@
+package lepo.bot.audio.pack;
+
+import com.sedmelluq.discord.lavaplayer.container.ogg.OggAudioTrack;
+import com.sedmelluq.discord.lavaplayer.source.AudioSourceManager;
+import com.sedmelluq.discord.lavaplayer.tools.FriendlyException;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrackInfo;
+import com.sedmelluq.discord.lavaplayer.track.DelegatedAudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.playback.LocalAudioTrackExecutor;
+
+/**
+ * Clip served from the {@link ClipPack}: an Ogg track reading its slice of the mapped pack.
+ */
+public class PackedAudioTrack extends DelegatedAudioTrack {
+
+    private final PackedAudioSourceManager sourceManager;
+
+    public PackedAudioTrack(AudioTrackInfo trackInfo, PackedAudioSourceManager sourceManager) {
+        super(trackInfo);
+        this.sourceManager = sourceManager;
+    }
+
+    @Override
+    public void process(LocalAudioTrackExecutor executor) throws Exception {
+        String key = PackedAudioSourceManager.keyOf(trackInfo.identifier);
+        var slice = sourceManager.slice(key)
+                .orElseThrow(() -> new FriendlyException("Clip " + key + " is not in the pack", FriendlyException.Severity.COMMON, null));
+        processDelegate(new OggAudioTrack(trackInfo, new ByteBufferSeekableInputStream(slice)), executor);
+    }
+
+    @Override
+    protected AudioTrack makeShallowClone() {
+        return new PackedAudioTrack(trackInfo, sourceManager);
+    }
+
+    @Override
+    public AudioSourceManager getSourceManager() {
+        return sourceManager;
+    }
+
+}
@@ -0,0 +1,321 @@
+package lepo.bot.audio.tts;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.source.AudioSourceManager;
+import com.sedmelluq.discord.lavaplayer.source.local.LocalAudioSourceManager;
+import com.sedmelluq.discord.lavaplayer.tools.FriendlyException;
+import com.sedmelluq.discord.lavaplayer.tools.Units;
+import com.sedmelluq.discord.lavaplayer.track.AudioItem;
+import com.sedmelluq.discord.lavaplayer.track.AudioReference;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrackInfo;
+import lepo.bot.audio.opus.OggOpusDemuxer;
+import lepo.bot.audio.opus.OpusFrames;
+import lepo.bot.cache.LruCache;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lavaplayer source answering {@code ftts://} identifiers from local storage, registered before the Flowery source.
+ *
+ * <p>Three tiers, keyed by {@link TtsRequest}: loaded track prototypes in memory, whose clones start without
+ * touching the service or probing the file again; the {@link TtsDiskCache}; the {@link TtsProvider}, whose answer
+ * is stored on disk. When the phrase cannot be fetched the identifier is left to the Flowery source,
+ * so a TTS request never fails because of the cache.</p>
+ *
+ * <p>A phrase missing from both tiers is streamed: as soon as the provider starts answering, a
+ * {@link StreamingTtsTrack} is returned and plays the audio as it arrives. The download fills the cache
+ * in parallel, so later requests are served from the tiers above. A download receiving nothing for the stall
+ * timeout is aborted, so neither its players nor the identical requests joining it wait forever.</p>
+ *
+ * <p>Loads are single-flight: identical requests arriving while one is being fetched, streamed or probed share it
+ * and are counted as saved requests.</p>
+ */
+@Slf4j
+public class CachedTtsSourceManager implements AudioSourceManager {
+
+    private static final int MEMORY_SIZE = 256;
+    private static final long MEMORY_TTL_HOURS = 6;
+    private static final int FRAMES_SIZE = 64;
+    private static final long STALL_CHECK_MS = 500;
+
+    private final String defaultVoice;
+    private final LocalAudioSourceManager localAudioSourceManager;
+    private final TtsDiskCache diskCache;
+    private final TtsProvider ttsProvider;
+    private final LruCache<TtsRequest, AudioTrack> prototypes;
+    private final LruCache<TtsRequest, OpusFrames> frames;
+    private final Map<TtsRequest, CompletableFuture<Optional<AudioTrack>>> inFlight;
+    private final Map<TtsRequest, CompletableFuture<Optional<TtsStream>>> streams;
+    private final ExecutorService streamExecutor;
+    private final ScheduledExecutorService stallWatchdog;
+    private final Duration stallTimeout;
+    private final AtomicLong memoryHits;
+    private final AtomicLong diskHits;
+    private final AtomicLong streamed;
+    private final AtomicLong fetched;
+    private final AtomicLong failed;
+    private final AtomicLong saved;
+
+    /**
+     * @param defaultVoice            the voice of identifiers not naming one, as configured on the Flowery source
+     * @param localAudioSourceManager probes the cached files
+     * @param diskCache               the on-disk tier
+     * @param ttsProvider             renders the phrases not cached yet
+     * @param stallTimeout            longest wait for the next bytes of a streamed phrase before it is aborted
+     */
+    public CachedTtsSourceManager(String defaultVoice, LocalAudioSourceManager localAudioSourceManager,
+                                  TtsDiskCache diskCache, TtsProvider ttsProvider, Duration stallTimeout) {
+        this.defaultVoice = defaultVoice;
+        this.localAudioSourceManager = localAudioSourceManager;
+        this.diskCache = diskCache;
+        this.ttsProvider = ttsProvider;
+        this.prototypes = new LruCache<>("tts", MEMORY_SIZE, MEMORY_TTL_HOURS, TimeUnit.HOURS);
+        this.frames = new LruCache<>("tts-frames", FRAMES_SIZE, MEMORY_TTL_HOURS, TimeUnit.HOURS);
+        this.inFlight = new ConcurrentHashMap<>();
+        this.streams = new ConcurrentHashMap<>();
+        this.streamExecutor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "tts-stream");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.stallTimeout = stallTimeout;
+        this.stallWatchdog = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "tts-stream-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.stallWatchdog.scheduleWithFixedDelay(this::abortStalledStreams, STALL_CHECK_MS, STALL_CHECK_MS, TimeUnit.MILLISECONDS);
+        this.memoryHits = new AtomicLong();
+        this.diskHits = new AtomicLong();
+        this.streamed = new AtomicLong();
+        this.fetched = new AtomicLong();
+        this.failed = new AtomicLong();
+        this.saved = new AtomicLong();
+    }
+
+    @Override
+    public String getSourceName() {
+        return "tts-cache";
+    }
+
+    /**
+     * @return a clone of the cached phrase, or null to let the Flowery source fetch it
+     */
+    @Override
+    public AudioItem loadItem(AudioPlayerManager manager, AudioReference reference) {
+        return TtsRequest.parse(reference.identifier, defaultVoice)
+                .flatMap(ttsRequest -> load(manager, ttsRequest, reference.identifier))
+                .orElse(null);
+    }
+
+    /**
+     * @param text a phrase spoken with the default voice, e.g. a member name greeted on join
+     * @return whether the phrase is already stored, so rendering it would not reach the service
+     */
+    public boolean isCached(String text) {
+        return diskCache.contains(TtsRequest.of(text, defaultVoice).cacheKey());
+    }
+
+    /**
+     * Renders the phrase into the cache ahead of time, sharing the load with identical requests in flight.
+     * A phrase missing from disk is fetched through the same single-flight download as {@link #loadItem}, so a
+     * member joining while their greeting is prefetched plays the download already running.
+     *
+     * @param text a phrase spoken with the default voice
+     * @return whether the phrase is cached or has been downloaded whole, and is being stored
+     */
+    public boolean prefetch(AudioPlayerManager manager, String text) {
+        TtsRequest ttsRequest = TtsRequest.of(text, defaultVoice);
+        if (prototypes.get(ttsRequest).isPresent()) {
+            return true;
+        }
+        if (diskCache.contains(ttsRequest.cacheKey())) {
+            return loadPrototype(manager, ttsRequest).isPresent();
+        }
+        return stream(manager, ttsRequest)
+                .map(ttsStream -> ttsStream.completion().join().isPresent())
+                .orElse(false);
+    }
+
+    /**
+     * Reads a cached phrase as raw packets, so it can be joined to other pre-demuxed audio, e.g. a greeting
+     * followed by its welcome clip. Never reaches the provider.
+     *
+     * @param text a phrase spoken with the default voice
+     * @return the packets, or empty if the phrase is not cached or not made of 20 ms packets
+     */
+    public Optional<OpusFrames> cachedFrames(String text) {
+        TtsRequest ttsRequest = TtsRequest.of(text, defaultVoice);
+        Optional<OpusFrames> cached = frames.get(ttsRequest);
+        if (cached.isPresent()) {
+            return cached;
+        }
+        Optional<OpusFrames> demuxed = diskCache.get(ttsRequest.cacheKey()).flatMap(CachedTtsSourceManager::demux);
+        demuxed.ifPresent(opusFrames -> frames.put(ttsRequest, opusFrames));
+        return demuxed;
+    }
+
+    private Optional<AudioTrack> load(AudioPlayerManager manager, TtsRequest ttsRequest, String identifier) {
+        Optional<AudioTrack> prototype = prototypes.get(ttsRequest)
+                .filter(track -> new File(track.getIdentifier()).isFile());
+        if (prototype.isPresent()) {
+            memoryHits.incrementAndGet();
+            return prototype.map(AudioTrack::makeClone);
+        }
+        if (diskCache.contains(ttsRequest.cacheKey())) {
+            return loadPrototype(manager, ttsRequest).map(AudioTrack::makeClone);
+        }
+        AudioTrackInfo trackInfo = new AudioTrackInfo(ttsRequest.getText(), getSourceName(), Units.DURATION_MS_UNKNOWN, identifier, false, identifier);
+        return stream(manager, ttsRequest).map(ttsStream -> new StreamingTtsTrack(trackInfo, ttsStream, this));
+    }
+
+    /**
+     * Opens the phrase on the provider and starts downloading it, or joins the identical download already running.
+     * The download stays shared until the phrase is cached.
+     */
+    private Optional<TtsStream> stream(AudioPlayerManager manager, TtsRequest ttsRequest) {
+        CompletableFuture<Optional<TtsStream>> flight = new CompletableFuture<>();
+        CompletableFuture<Optional<TtsStream>> running = streams.putIfAbsent(ttsRequest, flight);
+        if (running != null) {
+            saved.incrementAndGet();
+            return running.join();
+        }
+        Optional<TtsStream> opened = Optional.empty();
+        try {
+            opened = ttsProvider.open(ttsRequest).map(body -> {
+                TtsStream ttsStream = new TtsStream(ttsRequest, body, stallTimeout);
+                ttsStream.completion().thenAccept(audio -> {
+                    store(manager, ttsRequest, audio);
+                    streams.remove(ttsRequest, flight);
+                });
+                streamExecutor.execute(ttsStream::pump);
+                return ttsStream;
+            });
+            (opened.isPresent() ? streamed : failed).incrementAndGet();
+            return opened;
+        } finally {
+            flight.complete(opened);
+            if (opened.isEmpty()) {
+                streams.remove(ttsRequest, flight);
+            }
+        }
+    }
+
+    /**
+     * Aborts the downloads that received nothing for the stall timeout; their completion then removes them
+     * from {@link #streams}.
+     */
+    private void abortStalledStreams() {
+        streams.values().forEach(flight -> flight.getNow(Optional.empty()).ifPresent(TtsStream::abortIfStalled));
+    }
+
+    /**
+     * Caches a downloaded phrase on disk and in memory.
+     */
+    private void store(AudioPlayerManager manager, TtsRequest ttsRequest, Optional<byte[]> audio) {
+        Optional<AudioTrack> prototype = audio
+                .flatMap(bytes -> diskCache.put(ttsRequest.cacheKey(), bytes))
+                .flatMap(file -> probe(manager, file));
+        prototype.ifPresent(track -> prototypes.put(ttsRequest, track));
+        (prototype.isPresent() ? fetched : failed).incrementAndGet();
+    }
+
+    /**
+     * Loads the prototype from disk or from the service, or waits for the identical load already running.
+     */
+    private Optional<AudioTrack> loadPrototype(AudioPlayerManager manager, TtsRequest ttsRequest) {
+        CompletableFuture<Optional<AudioTrack>> flight = new CompletableFuture<>();
+        CompletableFuture<Optional<AudioTrack>> running = inFlight.putIfAbsent(ttsRequest, flight);
+        if (running != null) {
+            saved.incrementAndGet();
+            return running.join();
+        }
+        Optional<AudioTrack> prototype = Optional.empty();
+        try {
+            prototype = file(ttsRequest).flatMap(file -> probe(manager, file));
+            prototype.ifPresent(track -> prototypes.put(ttsRequest, track));
+            return prototype;
+        } finally {
+            flight.complete(prototype);
+            inFlight.remove(ttsRequest, flight);
+        }
+    }
+
+    private Optional<File> file(TtsRequest ttsRequest) {
+        String key = ttsRequest.cacheKey();
+        Optional<File> cached = diskCache.get(key);
+        if (cached.isPresent()) {
+            diskHits.incrementAndGet();
+            return cached;
+        }
+        Optional<File> stored = ttsProvider.synthesize(ttsRequest).flatMap(audio -> diskCache.put(key, audio));
+        (stored.isPresent() ? fetched : failed).incrementAndGet();
+        return stored;
+    }
+
+    private Optional<AudioTrack> probe(AudioPlayerManager manager, File file) {
+        try {
+            AudioItem audioItem = localAudioSourceManager.loadItem(manager, new AudioReference(file.getAbsolutePath(), null));
+            return audioItem instanceof AudioTrack ? Optional.of((AudioTrack) audioItem) : Optional.empty();
+        } catch (FriendlyException e) {
+            log.info("Cached TTS file {} not playable: {}", file.getName(), e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    private static Optional<OpusFrames> demux(File file) {
+        try {
+            return OggOpusDemuxer.demux(ByteBuffer.wrap(Files.readAllBytes(file.toPath())));
+        } catch (IOException e) {
+            log.info("Cannot read cached TTS file {}: {}", file.getName(), e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    public void logMetrics() {
+        log.info("TTS cache: memory hits {}, disk hits {}, streamed {}, fetched {}, failed {}, saved by single-flight {}, {} phrases in memory, {} on disk ({} KB), {} evicted from disk",
+                memoryHits.get(), diskHits.get(), streamed.get(), fetched.get(), failed.get(), saved.get(), prototypes.size(),
+                diskCache.size(), diskCache.getUsedBytes() / 1024, diskCache.getEvictions());
+    }
+
+    @Override
+    public boolean isTrackEncodable(AudioTrack track) {
+        return false;
+    }
+
+    @Override
+    public void encodeTrack(AudioTrack track, DataOutput output) {
+        // cached tracks are local file tracks, encoded by the local source; streamed ones are not encodable
+    }
+
+    @Override
+    public AudioTrack decodeTrack(AudioTrackInfo trackInfo, DataInput input) {
+        return null;
+    }
+
+    @Override
+    public void shutdown() {
+        stallWatchdog.shutdownNow();
+        streamExecutor.shutdownNow();
+        prototypes.invalidateAll();
+        frames.invalidateAll();
+    }
+
+}
@@ -0,0 +1,124 @@
+package lepo.bot.audio.tts;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Downloads synthesized phrases as Ogg Opus, the format the bot plays without re-encoding, from the Flowery API
+ * or from any endpoint speaking its query parameters (e.g. a mirror or the benchmark stand-in).
+ *
+ * <p>The request timeout of the HTTP client only covers the wait for the headers, so the caller waits on the
+ * answer with its own deadline: a downloaded phrase must arrive whole within the request timeout, an opened one
+ * must start within it and is then watched by the {@link TtsStream} reading it.</p>
+ */
+@Slf4j
+public class FloweryTtsClient implements TtsProvider {
+
+    public static final String FLOWERY_API_URL = "https://api.flowery.pw/v1/tts";
+    private static final String USER_AGENT = "LepoDiscordBot";
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(5);
+
+    private final String apiUrl;
+    private final Duration requestTimeout;
+    private final HttpClient httpClient;
+
+    /**
+     * @param apiUrl         the endpoint, e.g. {@link #FLOWERY_API_URL}
+     * @param requestTimeout how long a single request may take
+     */
+    public FloweryTtsClient(String apiUrl, Duration requestTimeout) {
+        this.apiUrl = apiUrl;
+        this.requestTimeout = requestTimeout;
+        this.httpClient = HttpClient.newBuilder()
+                .connectTimeout(CONNECT_TIMEOUT)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .build();
+    }
+
+    @Override
+    public String getName() {
+        return URI.create(apiUrl).getAuthority();
+    }
+
+    /**
+     * @return the audio of the phrase, or empty if the service did not answer with it
+     */
+    @Override
+    public Optional<byte[]> synthesize(TtsRequest ttsRequest) {
+        return send(ttsRequest, HttpResponse.BodyHandlers.ofByteArray())
+                .filter(audio -> audio.length > 0);
+    }
+
+    /**
+     * @return the body of the answer, readable while the service is still sending it
+     */
+    @Override
+    public Optional<InputStream> open(TtsRequest ttsRequest) {
+        return send(ttsRequest, HttpResponse.BodyHandlers.ofInputStream());
+    }
+
+    private <T> Optional<T> send(TtsRequest ttsRequest, HttpResponse.BodyHandler<T> bodyHandler) {
+        URI uri = URI.create(apiUrl + "?voice=" + encode(ttsRequest.getVoice())
+                + "&text=" + encode(ttsRequest.getText())
+                + "&speed=" + ttsRequest.getSpeed()
+                + "&translate=false&silence=0&audio_format=ogg_opus");
+        HttpRequest httpRequest = HttpRequest.newBuilder(uri)
+                .timeout(requestTimeout)
+                .header("User-Agent", USER_AGENT)
+                .GET()
+                .build();
+        CompletableFuture<HttpResponse<T>> answer = httpClient.sendAsync(httpRequest, bodyHandler);
+        try {
+            HttpResponse<T> response = answer.get(requestTimeout.toMillis(), TimeUnit.MILLISECONDS);
+            if (response.statusCode() != 200) {
+                log.info("TTS service {} answered {} for '{}'", getName(), response.statusCode(), ttsRequest.getText());
+                discard(response.body());
+                return Optional.empty();
+            }
+            return Optional.of(response.body());
+        } catch (TimeoutException e) {
+            log.info("TTS service {} did not answer '{}' within {} ms", getName(), ttsRequest.getText(), requestTimeout.toMillis());
+            answer.thenAccept(late -> discard(late.body()));
+            return Optional.empty();
+        } catch (ExecutionException e) {
+            log.info("TTS service {} not reachable: {}", getName(), e.getCause().getMessage());
+            return Optional.empty();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            answer.thenAccept(late -> discard(late.body()));
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Closes an answer body that will not be read, releasing its connection.
+     */
+    private static void discard(Object body) {
+        if (body instanceof InputStream) {
+            try {
+                ((InputStream) body).close();
+            } catch (IOException e) {
+                log.info("Cannot close TTS answer: {}", e.getMessage());
+            }
+        }
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8).replace("+", "%20");
+    }
+
+}
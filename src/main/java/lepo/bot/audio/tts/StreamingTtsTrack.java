@@ -0,0 +1,40 @@
+package lepo.bot.audio.tts;
+
+import com.sedmelluq.discord.lavaplayer.container.ogg.OggAudioTrack;
+import com.sedmelluq.discord.lavaplayer.source.AudioSourceManager;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrackInfo;
+import com.sedmelluq.discord.lavaplayer.track.DelegatedAudioTrack;
+import com.sedmelluq.discord.lavaplayer.track.playback.LocalAudioTrackExecutor;
+
+/**
+ * Phrase played while it is still being downloaded: an Ogg track reading its {@link TtsStream} as it fills.
+ * Every clone reads the same download from the start.
+ */
+public class StreamingTtsTrack extends DelegatedAudioTrack {
+
+    private final TtsStream ttsStream;
+    private final CachedTtsSourceManager sourceManager;
+
+    StreamingTtsTrack(AudioTrackInfo trackInfo, TtsStream ttsStream, CachedTtsSourceManager sourceManager) {
+        super(trackInfo);
+        this.ttsStream = ttsStream;
+        this.sourceManager = sourceManager;
+    }
+
+    @Override
+    public void process(LocalAudioTrackExecutor executor) throws Exception {
+        processDelegate(new OggAudioTrack(trackInfo, ttsStream.reader()), executor);
+    }
+
+    @Override
+    protected AudioTrack makeShallowClone() {
+        return new StreamingTtsTrack(trackInfo, ttsStream, sourceManager);
+    }
+
+    @Override
+    public AudioSourceManager getSourceManager() {
+        return sourceManager;
+    }
+
+}
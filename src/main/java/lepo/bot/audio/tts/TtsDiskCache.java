@@ -0,0 +1,134 @@
+package lepo.bot.audio.tts;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * Synthesized phrases kept on disk, one file per {@link TtsRequest#cacheKey()}, within a size budget.
+ * The least recently used files are deleted first; the modification time of a file is its last use,
+ * so the order survives restarts.
+ */
+@Slf4j
+public class TtsDiskCache {
+
+    private static final String EXTENSION = ".opus";
+
+    private final Path directory;
+    private final long budgetBytes;
+    private final LinkedHashMap<String, Long> sizesByKey;
+    private long usedBytes;
+    private long evictions;
+
+    /**
+     * @param directory   where the files are kept, created if missing
+     * @param budgetBytes maximum size of the files together
+     */
+    public TtsDiskCache(Path directory, long budgetBytes) {
+        this.directory = directory;
+        this.budgetBytes = budgetBytes;
+        this.sizesByKey = new LinkedHashMap<>(16, 0.75f, true);
+        try {
+            Files.createDirectories(directory);
+        } catch (IOException e) {
+            log.info("Cannot create TTS cache directory {}: {}", directory, e.getMessage());
+        }
+        File[] files = Objects.requireNonNullElse(directory.toFile().listFiles((parent, name) -> name.endsWith(EXTENSION)), new File[0]);
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (File file : files) {
+            sizesByKey.put(file.getName().substring(0, file.getName().length() - EXTENSION.length()), file.length());
+            usedBytes += file.length();
+        }
+        evictOverBudget();
+        log.info("TTS disk cache: {} phrases, {} KB of {} KB", sizesByKey.size(), usedBytes / 1024, budgetBytes / 1024);
+    }
+
+    /**
+     * @return the file of the phrase, marked as just used, or empty if it is not cached
+     */
+    public synchronized Optional<File> get(String key) {
+        if (sizesByKey.get(key) == null) {
+            return Optional.empty();
+        }
+        File file = fileOf(key);
+        if (!file.isFile()) {
+            usedBytes -= sizesByKey.remove(key);
+            return Optional.empty();
+        }
+        if (!file.setLastModified(System.currentTimeMillis())) {
+            log.info("Cannot mark TTS file {} as used", file.getName());
+        }
+        return Optional.of(file);
+    }
+
+    /**
+     * Stores the phrase, evicting the least recently used ones if the budget is exceeded.
+     *
+     * @return the stored file, or empty if it cannot be written
+     */
+    public synchronized Optional<File> put(String key, byte[] audio) {
+        File file = fileOf(key);
+        Path tmp = directory.resolve(key + ".tmp");
+        try {
+            Files.write(tmp, audio);
+            Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.info("Cannot write TTS file {}: {}", file.getName(), e.getMessage());
+            return Optional.empty();
+        }
+        Optional.ofNullable(sizesByKey.put(key, (long) audio.length)).ifPresent(previous -> usedBytes -= previous);
+        usedBytes += audio.length;
+        evictOverBudget();
+        return file.isFile() ? Optional.of(file) : Optional.empty();
+    }
+
+    /**
+     * @return whether the phrase is stored, without marking it as used
+     */
+    public synchronized boolean contains(String key) {
+        return sizesByKey.containsKey(key);
+    }
+
+    public synchronized int size() {
+        return sizesByKey.size();
+    }
+
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    private void evictOverBudget() {
+        Iterator<Map.Entry<String, Long>> eldest = sizesByKey.entrySet().iterator();
+        while (usedBytes > budgetBytes && eldest.hasNext()) {
+            Map.Entry<String, Long> entry = eldest.next();
+            try {
+                Files.deleteIfExists(fileOf(entry.getKey()).toPath());
+            } catch (IOException e) {
+                log.info("Cannot delete TTS file {}: {}", entry.getKey(), e.getMessage());
+            }
+            usedBytes -= entry.getValue();
+            evictions++;
+            eldest.remove();
+        }
+    }
+
+    private File fileOf(String key) {
+        return directory.resolve(key + EXTENSION).toFile();
+    }
+
+}
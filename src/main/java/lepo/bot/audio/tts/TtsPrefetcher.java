@@ -0,0 +1,152 @@
+package lepo.bot.audio.tts;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import lombok.extern.slf4j.Slf4j;
+import net.dv8tion.jda.api.entities.GuildVoiceState;
+import net.dv8tion.jda.api.entities.Member;
+import net.dv8tion.jda.api.events.guild.GuildReadyEvent;
+import net.dv8tion.jda.api.events.guild.member.GuildMemberJoinEvent;
+import net.dv8tion.jda.api.events.guild.member.update.GuildMemberUpdateNicknameEvent;
+import net.dv8tion.jda.api.events.guild.voice.GuildVoiceUpdateEvent;
+import net.dv8tion.jda.api.hooks.ListenerAdapter;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Renders the greetings of likely joiners before they join, so the join plays an already cached phrase.
+ *
+ * <p>Candidates are the members in voice when a guild becomes ready, members who just joined the guild,
+ * members who leave voice (they usually come back) and members who change nickname. Names already cached
+ * cost nothing; the others are fetched one at a time, at most {@code fetchesPerMinute} per minute,
+ * from a bounded queue, so the TTS provider sees a steady trickle instead of bursts.</p>
+ */
+@Slf4j
+public class TtsPrefetcher extends ListenerAdapter {
+
+    private static final int MAX_PENDING = 500;
+
+    private final CachedTtsSourceManager cachedTtsSourceManager;
+    private final AudioPlayerManager audioPlayerManager;
+    private final Set<String> pending;
+    private final ScheduledThreadPoolExecutor executor;
+    private final AtomicLong prefetched;
+    private final AtomicLong alreadyCached;
+    private final AtomicLong failed;
+    private final AtomicLong dropped;
+
+    /**
+     * @param cachedTtsSourceManager the TTS cache to fill
+     * @param audioPlayerManager     the manager probing the rendered phrases
+     * @param fetchesPerMinute       how many phrases may be requested from the provider per minute, 0 disables prefetching
+     */
+    public TtsPrefetcher(CachedTtsSourceManager cachedTtsSourceManager, AudioPlayerManager audioPlayerManager, int fetchesPerMinute) {
+        this.cachedTtsSourceManager = cachedTtsSourceManager;
+        this.audioPlayerManager = audioPlayerManager;
+        this.pending = new LinkedHashSet<>();
+        this.executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "tts-prefetch");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.prefetched = new AtomicLong();
+        this.alreadyCached = new AtomicLong();
+        this.failed = new AtomicLong();
+        this.dropped = new AtomicLong();
+        if (fetchesPerMinute > 0) {
+            long intervalMs = TimeUnit.MINUTES.toMillis(1) / fetchesPerMinute;
+            executor.scheduleWithFixedDelay(this::prefetchNext, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void onGuildReady(@NotNull GuildReadyEvent event) {
+        event.getGuild().getVoiceStates().stream()
+                .filter(GuildVoiceState::inAudioChannel)
+                .map(GuildVoiceState::getMember)
+                .forEach(this::enqueue);
+    }
+
+    @Override
+    public void onGuildMemberJoin(@NotNull GuildMemberJoinEvent event) {
+        enqueue(event.getMember());
+    }
+
+    @Override
+    public void onGuildVoiceUpdate(@NotNull GuildVoiceUpdateEvent event) {
+        if (event.getChannelJoined() == null) {
+            enqueue(event.getMember());
+        }
+    }
+
+    @Override
+    public void onGuildMemberUpdateNickname(@NotNull GuildMemberUpdateNicknameEvent event) {
+        enqueue(event.getMember());
+    }
+
+    public void logMetrics() {
+        int pendingCount;
+        synchronized (pending) {
+            pendingCount = pending.size();
+        }
+        log.info("TTS prefetch: prefetched {}, already cached {}, failed {}, dropped {}, pending {}",
+                prefetched.get(), alreadyCached.get(), failed.get(), dropped.get(), pendingCount);
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private void enqueue(Member member) {
+        if (Objects.isNull(member) || member.getUser().isBot()) {
+            return;
+        }
+        String name = member.getEffectiveName();
+        synchronized (pending) {
+            if (pending.size() >= MAX_PENDING && !pending.contains(name)) {
+                dropped.incrementAndGet();
+                return;
+            }
+            pending.add(name);
+        }
+    }
+
+    /**
+     * Fetches the next name not cached yet; names already cached are skipped without using the budget.
+     */
+    private void prefetchNext() {
+        String name;
+        while ((name = poll()) != null) {
+            if (cachedTtsSourceManager.isCached(name)) {
+                alreadyCached.incrementAndGet();
+                continue;
+            }
+            try {
+                (cachedTtsSourceManager.prefetch(audioPlayerManager, name) ? prefetched : failed).incrementAndGet();
+            } catch (RuntimeException e) {
+                failed.incrementAndGet();
+                log.info("TTS prefetch of {} failed: {}", name, e.getMessage());
+            }
+            return;
+        }
+    }
+
+    private String poll() {
+        synchronized (pending) {
+            Iterator<String> iterator = pending.iterator();
+            if (!iterator.hasNext()) {
+                return null;
+            }
+            String name = iterator.next();
+            iterator.remove();
+            return name;
+        }
+    }
+
+}
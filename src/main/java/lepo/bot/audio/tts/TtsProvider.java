@@ -0,0 +1,32 @@
+package lepo.bot.audio.tts;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Optional;
+
+/**
+ * A service turning phrases into Ogg Opus audio.
+ */
+public interface TtsProvider {
+
+    /**
+     * @return a short name for logs and metrics
+     */
+    String getName();
+
+    /**
+     * @return the audio of the phrase, or empty if the provider could not render it
+     */
+    Optional<byte[]> synthesize(TtsRequest ttsRequest);
+
+    /**
+     * Starts rendering the phrase and returns as soon as the audio begins to arrive.
+     * Providers that cannot stream answer with the whole rendered phrase.
+     *
+     * @return the audio of the phrase as it arrives, or empty if the provider could not render it
+     */
+    default Optional<InputStream> open(TtsRequest ttsRequest) {
+        return synthesize(ttsRequest).map(ByteArrayInputStream::new);
+    }
+
+}
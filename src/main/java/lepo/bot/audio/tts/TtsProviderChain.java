@@ -0,0 +1,127 @@
+package lepo.bot.audio.tts;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Tries the providers in order, giving each one at most the timeout: a provider that fails, answers
+ * nothing or is too slow hands the request to the next one. Outcomes are counted per provider.
+ */
+@Slf4j
+public class TtsProviderChain implements TtsProvider {
+
+    private final List<TtsProvider> providers;
+    private final List<ProviderStats> stats;
+    private final long timeoutMs;
+    private final ExecutorService executor;
+
+    /**
+     * @param providers the providers, most preferred first
+     * @param timeout   how long each provider may take before the next one is tried
+     */
+    public TtsProviderChain(List<TtsProvider> providers, Duration timeout) {
+        this.providers = List.copyOf(providers);
+        this.stats = providers.stream().map(provider -> new ProviderStats()).collect(Collectors.toUnmodifiableList());
+        this.timeoutMs = timeout.toMillis();
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "tts-provider");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public String getName() {
+        return providers.stream().map(TtsProvider::getName).collect(Collectors.joining(" > "));
+    }
+
+    @Override
+    public Optional<byte[]> synthesize(TtsRequest ttsRequest) {
+        return first(provider -> provider.synthesize(ttsRequest), audio -> {
+        });
+    }
+
+    /**
+     * Each provider is given the timeout to start answering; the rest of the audio arrives at its own pace.
+     */
+    @Override
+    public Optional<InputStream> open(TtsRequest ttsRequest) {
+        return first(provider -> provider.open(ttsRequest), TtsProviderChain::close);
+    }
+
+    /**
+     * @param attempt what to ask each provider
+     * @param discard releases an answer arriving after its provider timed out
+     * @return the first answer, or empty if no provider gave one in time
+     */
+    private <T> Optional<T> first(Function<TtsProvider, Optional<T>> attempt, Consumer<T> discard) {
+        for (int i = 0; i < providers.size(); i++) {
+            TtsProvider provider = providers.get(i);
+            ProviderStats providerStats = stats.get(i);
+            CompletableFuture<Optional<T>> answer = CompletableFuture.supplyAsync(() -> attempt.apply(provider), executor);
+            try {
+                Optional<T> result = answer.get(timeoutMs, TimeUnit.MILLISECONDS);
+                if (result.isPresent()) {
+                    providerStats.served.incrementAndGet();
+                    return result;
+                }
+                providerStats.failed.incrementAndGet();
+            } catch (TimeoutException e) {
+                answer.thenAccept(late -> late.ifPresent(discard));
+                providerStats.timedOut.incrementAndGet();
+                log.info("TTS provider {} did not answer within {} ms", provider.getName(), timeoutMs);
+            } catch (ExecutionException e) {
+                providerStats.failed.incrementAndGet();
+                log.info("TTS provider {} failed: {}", provider.getName(), e.getCause().getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return Optional.empty();
+            }
+        }
+        return Optional.empty();
+    }
+
+    private static void close(InputStream inputStream) {
+        try {
+            inputStream.close();
+        } catch (IOException e) {
+            log.debug("Cannot close late TTS answer: {}", e.getMessage());
+        }
+    }
+
+    public void logMetrics() {
+        for (int i = 0; i < providers.size(); i++) {
+            ProviderStats providerStats = stats.get(i);
+            log.info("TTS provider {}: served {}, failed {}, timed out {}", providers.get(i).getName(),
+                    providerStats.served.get(), providerStats.failed.get(), providerStats.timedOut.get());
+        }
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private static final class ProviderStats {
+
+        private final AtomicLong served = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicLong timedOut = new AtomicLong();
+
+    }
+
+}
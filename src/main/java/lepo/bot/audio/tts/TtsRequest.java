@@ -0,0 +1,86 @@
+package lepo.bot.audio.tts;
+
+import lombok.Value;
+
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Optional;
+import java.util.stream.Collectors;
+
+/**
+ * What identifies a synthesized phrase: the same text, voice and speed always give the same audio.
+ * Parsed from the {@code ftts://<text>?voice=<id>&speed=<speed>} identifiers of the Flowery source.
+ */
+@Value
+public class TtsRequest {
+
+    public static final String TTS_PREFIX = "ftts://";
+    private static final double DEFAULT_SPEED = 1.0;
+
+    String text;
+    String voice;
+    double speed;
+
+    /**
+     * @return the request for the text at the default speed, as sent by greetings and /tts
+     */
+    public static TtsRequest of(String text, String voice) {
+        return new TtsRequest(text, voice, DEFAULT_SPEED);
+    }
+
+    /**
+     * @return the identifier of the text with the default voice and speed, percent-encoded as the Flowery source expects
+     */
+    public static String identifierOf(String text) {
+        return TTS_PREFIX + URLEncoder.encode(text, StandardCharsets.UTF_8).replace("+", "%20");
+    }
+
+    /**
+     * @param identifier   an {@code ftts://} identifier, text and parameters percent-encoded
+     * @param defaultVoice the voice used when the identifier does not name one
+     * @return the request, or empty if the identifier is not a TTS one
+     */
+    public static Optional<TtsRequest> parse(String identifier, String defaultVoice) {
+        if (identifier == null || !identifier.startsWith(TTS_PREFIX)) {
+            return Optional.empty();
+        }
+        String[] parts = identifier.substring(TTS_PREFIX.length()).split("\\?", 2);
+        Map<String, String> parameters = parts.length < 2 ? Map.of() : Arrays.stream(parts[1].split("&"))
+                .map(parameter -> parameter.split("=", 2))
+                .filter(pair -> pair.length == 2)
+                .collect(Collectors.toMap(pair -> pair[0], pair -> decode(pair[1]), (first, second) -> second));
+        try {
+            double speed = Optional.ofNullable(parameters.get("speed")).map(Double::parseDouble).orElse(DEFAULT_SPEED);
+            return Optional.of(new TtsRequest(decode(parts[0]), parameters.getOrDefault("voice", defaultVoice), speed));
+        } catch (IllegalArgumentException e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * @return a file name safe key, the same for equal requests
+     */
+    public String cacheKey() {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256")
+                    .digest((voice + "|" + speed + "|" + text).getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private static String decode(String value) {
+        return URLDecoder.decode(value, StandardCharsets.UTF_8);
+    }
+
+}
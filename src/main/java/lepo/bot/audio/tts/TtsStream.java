@@ -0,0 +1,255 @@
+package lepo.bot.audio.tts;
+
+import com.sedmelluq.discord.lavaplayer.tools.Units;
+import com.sedmelluq.discord.lavaplayer.tools.io.SeekableInputStream;
+import com.sedmelluq.discord.lavaplayer.track.info.AudioTrackInfoProvider;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A phrase being downloaded from a {@link TtsProvider}. The bytes are kept as they arrive. Players read them
+ * while the rest is still on its way, and the whole phrase is handed to the cache once complete.
+ *
+ * <p>The download never waits for the players, so the cache fills at network speed even when the phrase sits
+ * in a queue. The buffer is bounded by {@link #MAX_BYTES}; a longer answer is cut and not cached.</p>
+ *
+ * <p>A provider may stop sending in the middle of the answer, and reading its body has no timeout of its own.
+ * When no bytes arrive for the stall timeout the download is aborted: the body is closed, the readers get
+ * what arrived so far and the phrase is not cached.</p>
+ */
+@Slf4j
+class TtsStream {
+
+    /**
+     * Bytes a reader waits for before its first read: the Ogg headers and a few audio frames,
+     * so playback does not stutter on the first packets.
+     */
+    static final int PREBUFFER_BYTES = 4 * 1024;
+    static final int MAX_BYTES = 2 * 1024 * 1024;
+    private static final int CHUNK_BYTES = 8 * 1024;
+
+    private final TtsRequest ttsRequest;
+    private final InputStream body;
+    private final long stallTimeoutNanos;
+    private final CompletableFuture<Optional<byte[]>> completion;
+    private byte[] buffer;
+    private int size;
+    private boolean done;
+    private long lastProgressNanos;
+
+    /**
+     * @param ttsRequest   the phrase
+     * @param body         the answer of the provider, closed once read or aborted
+     * @param stallTimeout longest wait for the next bytes before the download is aborted
+     */
+    TtsStream(TtsRequest ttsRequest, InputStream body, Duration stallTimeout) {
+        this.ttsRequest = ttsRequest;
+        this.body = body;
+        this.stallTimeoutNanos = stallTimeout.toNanos();
+        this.completion = new CompletableFuture<>();
+        this.buffer = new byte[CHUNK_BYTES * 4];
+        this.lastProgressNanos = System.nanoTime();
+    }
+
+    /**
+     * Copies the answer into the buffer until it ends, fails, exceeds the limit or is aborted. Runs on its own thread.
+     */
+    void pump() {
+        byte[] chunk = new byte[CHUNK_BYTES];
+        boolean complete = false;
+        try (body) {
+            int read;
+            while ((read = body.read(chunk)) != -1) {
+                if (!append(chunk, read)) {
+                    return;
+                }
+            }
+            complete = true;
+        } catch (IOException e) {
+            if (!isDone()) {
+                log.info("TTS answer for '{}' interrupted: {}", ttsRequest.getText(), e.getMessage());
+            }
+        } finally {
+            finish(complete);
+        }
+    }
+
+    /**
+     * Aborts the download if no bytes arrived for the stall timeout. Called periodically by the source manager,
+     * so a stalled download is released even when no player reads it.
+     */
+    void abortIfStalled() {
+        if (isStalled()) {
+            abort();
+        }
+    }
+
+    /**
+     * @return the whole phrase once downloaded, or empty if the download failed
+     */
+    CompletableFuture<Optional<byte[]>> completion() {
+        return completion;
+    }
+
+    /**
+     * @return a stream reading the phrase from the start, waiting for the bytes not downloaded yet
+     */
+    SeekableInputStream reader() {
+        return new Reader();
+    }
+
+    /**
+     * @return false if the stream was aborted meanwhile or the chunk exceeds the limit, ending the download
+     */
+    private synchronized boolean append(byte[] chunk, int length) {
+        if (done) {
+            return false;
+        }
+        if (size + length > MAX_BYTES) {
+            log.info("TTS answer for '{}' exceeds {} KB, cut", ttsRequest.getText(), MAX_BYTES / 1024);
+            return false;
+        }
+        if (size + length > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.min(MAX_BYTES, Math.max(buffer.length * 2, size + length)));
+        }
+        System.arraycopy(chunk, 0, buffer, size, length);
+        size += length;
+        lastProgressNanos = System.nanoTime();
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * Waits until the stream holds the given number of bytes or ends.
+     *
+     * @return false if no bytes arrived for the stall timeout while waiting
+     */
+    private synchronized boolean await(int bytes) throws InterruptedIOException {
+        try {
+            while (!done && size < bytes) {
+                long remaining = lastProgressNanos + stallTimeoutNanos - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("TTS stream read interrupted");
+        }
+    }
+
+    private synchronized boolean isStalled() {
+        return !done && System.nanoTime() - lastProgressNanos >= stallTimeoutNanos;
+    }
+
+    private synchronized boolean isDone() {
+        return done;
+    }
+
+    /**
+     * Ends the download without caching it and closes the body, which also unblocks the pump thread.
+     */
+    private void abort() {
+        if (!finish(false)) {
+            return;
+        }
+        log.info("TTS answer for '{}' stalled for {} ms, aborted", ttsRequest.getText(), TimeUnit.NANOSECONDS.toMillis(stallTimeoutNanos));
+        try {
+            body.close();
+        } catch (IOException e) {
+            log.info("Cannot close stalled TTS answer for '{}': {}", ttsRequest.getText(), e.getMessage());
+        }
+    }
+
+    /**
+     * @return false if the stream had already ended
+     */
+    private boolean finish(boolean complete) {
+        byte[] audio;
+        synchronized (this) {
+            if (done) {
+                return false;
+            }
+            done = true;
+            audio = complete && size > 0 ? Arrays.copyOf(buffer, size) : null;
+            notifyAll();
+        }
+        completion.complete(Optional.ofNullable(audio));
+        return true;
+    }
+
+    private final class Reader extends SeekableInputStream {
+
+        private int position;
+
+        private Reader() {
+            super(Units.CONTENT_LENGTH_UNKNOWN, 0);
+        }
+
+        @Override
+        public long getPosition() {
+            return position;
+        }
+
+        @Override
+        protected void seekHard(long position) {
+            throw new UnsupportedOperationException("TTS streams cannot seek");
+        }
+
+        @Override
+        public boolean canSeekHard() {
+            return false;
+        }
+
+        @Override
+        public List<AudioTrackInfoProvider> getTrackInfoProviders() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            if (!await(position == 0 ? PREBUFFER_BYTES : position + 1)) {
+                abort();
+            }
+            synchronized (TtsStream.this) {
+                if (position >= size) {
+                    return -1;
+                }
+                int count = Math.min(length, size - position);
+                System.arraycopy(buffer, position, bytes, offset, count);
+                position += count;
+                return count;
+            }
+        }
+
+        @Override
+        public int available() {
+            synchronized (TtsStream.this) {
+                return size - position;
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,126 @@
+package lepo.bot.cache;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Size bounded cache with least recently used eviction and a time to live per entry.
+ * Every operation is a short critical section on the cache itself, so it can be shared by the JDA event threads.
+ * Hit, miss, eviction and expiration counters are kept to size the cache for the real traffic.
+ */
+@Slf4j
+public class LruCache<K, V> {
+
+    @Getter
+    private final String name;
+    @Getter
+    private final int maxSize;
+    private final long ttlNanos;
+    private final LinkedHashMap<K, Entry<V>> entries;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long expirations;
+
+    /**
+     * @param name    used in the metrics log
+     * @param maxSize maximum number of entries, the least recently used one is evicted beyond it
+     * @param ttl     time to live of an entry, 0 to keep entries until they are evicted
+     * @param unit    unit of the time to live
+     */
+    public LruCache(String name, int maxSize, long ttl, TimeUnit unit) {
+        this.name = name;
+        this.maxSize = maxSize;
+        this.ttlNanos = unit.toNanos(ttl);
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                boolean evict = size() > LruCache.this.maxSize;
+                if (evict) {
+                    evictions++;
+                }
+                return evict;
+            }
+        };
+    }
+
+    public synchronized Optional<V> get(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            misses++;
+            return Optional.empty();
+        }
+        if (isExpired(entry)) {
+            entries.remove(key);
+            expirations++;
+            misses++;
+            return Optional.empty();
+        }
+        hits++;
+        return Optional.of(entry.value);
+    }
+
+    public synchronized void put(K key, V value) {
+        entries.put(key, new Entry<>(value, System.nanoTime()));
+    }
+
+    public synchronized void invalidate(K key) {
+        entries.remove(key);
+    }
+
+    public synchronized void invalidateAll() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized long getExpirations() {
+        return expirations;
+    }
+
+    public synchronized double getHitRate() {
+        long requests = hits + misses;
+        return requests == 0 ? 0 : (double) hits / requests;
+    }
+
+    public synchronized void logMetrics() {
+        log.info("Cache {}: size {}/{}, hits {}, misses {}, hit rate {}%, evictions {}, expirations {}",
+                name, entries.size(), maxSize, hits, misses, Math.round(getHitRate() * 100), evictions, expirations);
+    }
+
+    private boolean isExpired(Entry<V> entry) {
+        return ttlNanos > 0 && System.nanoTime() - entry.createdAt > ttlNanos;
+    }
+
+    private static final class Entry<V> {
+
+        private final V value;
+        private final long createdAt;
+
+        private Entry(V value, long createdAt) {
+            this.value = value;
+            this.createdAt = createdAt;
+        }
+
+    }
+
+}
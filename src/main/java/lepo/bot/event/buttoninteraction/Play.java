@@ -1,8 +1,12 @@
 package lepo.bot.event.buttoninteraction;
 
-import lepo.bot.audio.AudioPlayerLoadResultHandler;
+import lepo.bot.audio.AudioCatalog;
+import lepo.bot.audio.AudioClip;
+import lepo.bot.audio.AudioPlayerRegistry;
 import lepo.bot.audio.AudioPlayerSendHandler;
+import lepo.bot.audio.TrackPriority;
 import lepo.bot.filemanager.FileService;
+import lepo.bot.scheduler.DeferredTaskService;
 import lombok.extern.slf4j.Slf4j;
 import net.dv8tion.jda.api.entities.Guild;
 import net.dv8tion.jda.api.entities.GuildVoiceState;
@@ -12,35 +16,39 @@ import net.dv8tion.jda.api.events.interaction.component.ButtonInteractionEvent;
 import net.dv8tion.jda.api.hooks.ListenerAdapter;
 import net.dv8tion.jda.api.interactions.InteractionHook;
 import net.dv8tion.jda.api.interactions.commands.build.SlashCommandData;
+import net.dv8tion.jda.api.interactions.components.buttons.Button;
+import net.dv8tion.jda.api.interactions.components.buttons.ButtonStyle;
 import net.dv8tion.jda.internal.interactions.CommandDataImpl;
+import net.dv8tion.jda.internal.interactions.component.ButtonImpl;
 import org.jetbrains.annotations.NotNull;
 
-import java.io.File;
-import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
 
+import static lepo.bot.audio.AudioCategory.PLAY;
+import static lepo.bot.slashcommand.InteractionRouter.componentId;
+import static lepo.bot.slashcommand.InteractionRouter.componentValue;
+
 @Slf4j
 public abstract class Play extends ListenerAdapter {
 
-    protected final AudioPlayerLoadResultHandler audioPlayerLoadResultHandler;
-    protected final AudioPlayerSendHandler audioPlayerSendHandler;
-    protected final List<File> playAudioFilesList;
+    protected final AudioPlayerRegistry audioPlayerRegistry;
+    protected final AudioCatalog audioCatalog;
     private final FileService fileService;
+    protected final DeferredTaskService deferredTaskService;
+    public static final String PLAY_BUTTON = "play";
     protected static final int FIRST_25_AUDIO = 25;
     protected static final int SECOND_25_AUDIO = 25;
     protected static final int DELAY_DELETE_MESSAGE = 6;
 
-    protected Play(AudioPlayerLoadResultHandler audioPlayerLoadResultHandler, AudioPlayerSendHandler audioPlayerSendHandler, List<File> playAudioFilesList, FileService fileService) {
-        this.audioPlayerLoadResultHandler = audioPlayerLoadResultHandler;
-        this.audioPlayerSendHandler = audioPlayerSendHandler;
-        this.playAudioFilesList = playAudioFilesList;
+    protected Play(AudioPlayerRegistry audioPlayerRegistry, AudioCatalog audioCatalog, FileService fileService, DeferredTaskService deferredTaskService) {
+        this.audioPlayerRegistry = audioPlayerRegistry;
+        this.audioCatalog = audioCatalog;
         this.fileService = fileService;
+        this.deferredTaskService = deferredTaskService;
     }
 
     public SlashCommandData play(String commandName, String description) {
@@ -59,18 +67,14 @@ public abstract class Play extends ListenerAdapter {
             return;
         }
         String name = getUserName(event);
-        log.info("{} pushed button {}", name, event.getComponentId());
-        var audioFilePath = playAudioFilesList.stream()
-                .filter(file -> getFileNameWithoutExtension(file.getName()).equals(event.getComponentId()))
-                .map(File::getAbsolutePath)
-                .findFirst()
-                .orElse("AUDIO_NOT_FOUND");
-        if (joined && fileService.notContainedInFile(fileService.getChannelNameWithoutEmoji(event.getChannel().getName()))) {
+        String audioName = componentValue(event.getComponentId());
+        log.info("{} pushed button {}", name, audioName);
+        Optional<AudioClip> audioClip = audioCatalog.find(PLAY, audioName);
+        if (joined && !fileService.isExcluded(event.getChannel().getIdLong())) {
             log.info("Playing audio");
-            audioPlayerSendHandler.getTrackScheduler().nextTrack();
-            audioPlayerSendHandler.getAudioPlayerManager().loadItem(audioFilePath, audioPlayerLoadResultHandler);
-            audioPlayerSendHandler.getTrackScheduler().nextTrack();
-            event.deferReply().setEphemeral(true).setContent("\uD83D\uDD0A " + event.getComponentId())
+            AudioPlayerSendHandler audioPlayerSendHandler = audioPlayerRegistry.get(Objects.requireNonNull(event.getGuild()));
+            audioClip.ifPresentOrElse(clip -> audioPlayerSendHandler.play(clip, TrackPriority.CLIP), () -> log.info("Audio {} not found", audioName));
+            event.deferReply().setEphemeral(true).setContent("\uD83D\uDD0A " + audioName)
                     .queue(setInteractionTimeout());
         } else {
             log.info("Cant Play audio");
@@ -81,14 +85,11 @@ public abstract class Play extends ListenerAdapter {
     }
 
     private Consumer<InteractionHook> setInteractionTimeout() {
-        return interactionHook -> {
-            ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
-            scheduler.schedule(() -> interactionHook.deleteOriginal().queue(), 6, TimeUnit.SECONDS);
-        };
+        return deferredTaskService.deleteOriginalAfter(6, TimeUnit.SECONDS);
     }
 
-    protected String getFileNameWithoutExtension(String input) {
-        return input.substring(0, input.indexOf('.'));
+    protected Button toButton(AudioClip audioClip) {
+        return new ButtonImpl(componentId(PLAY_BUTTON, audioClip.getId()), audioClip.getDisplayName(), ButtonStyle.PRIMARY, false, null);
     }
 
     protected String getUserName(ButtonInteractionEvent event) {
@@ -107,10 +108,9 @@ public abstract class Play extends ListenerAdapter {
                         Optional.ofNullable(event.getMember())
                                 .map(Member::getVoiceState)
                                 .map(GuildVoiceState::getChannel)
-                                .filter(channel -> fileService.notContainedInFile(fileService.getChannelNameWithoutEmoji(channel.getName())))
+                                .filter(channel -> !fileService.isExcluded(channel.getIdLong()))
                                 .ifPresent(channel -> {
-                                    audioManager.openAudioConnection(channel);
-                                    audioManager.setSendingHandler(audioPlayerSendHandler);
+                                    audioPlayerRegistry.connect(audioManager, channel);
                                     joined.set(true);
                                 })
                 );
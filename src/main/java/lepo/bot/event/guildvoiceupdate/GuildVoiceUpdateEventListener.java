@@ -1,62 +1,70 @@
 package lepo.bot.event.guildvoiceupdate;
 
-import lepo.bot.audio.AudioFiles;
-import lepo.bot.audio.AudioPlayerLoadResultHandler;
+import lepo.bot.audio.AudioCatalog;
+import lepo.bot.audio.AudioCategory;
+import lepo.bot.audio.AudioClip;
+import lepo.bot.audio.AudioPlayerRegistry;
 import lepo.bot.audio.AudioPlayerSendHandler;
+import lepo.bot.audio.TrackPriority;
+import lepo.bot.audio.tts.TtsRequest;
 import lepo.bot.filemanager.FileService;
+import lepo.bot.scheduler.DeferredTaskService;
+import lepo.bot.scheduler.GuildMailbox;
 import lombok.extern.slf4j.Slf4j;
 import net.dv8tion.jda.api.entities.GuildVoiceState;
 import net.dv8tion.jda.api.entities.Member;
-import net.dv8tion.jda.api.entities.channel.Channel;
 import net.dv8tion.jda.api.entities.channel.unions.AudioChannelUnion;
 import net.dv8tion.jda.api.events.guild.voice.GuildVoiceUpdateEvent;
 import net.dv8tion.jda.api.hooks.ListenerAdapter;
 import net.dv8tion.jda.api.managers.AudioManager;
 import org.jetbrains.annotations.NotNull;
 
-import java.io.File;
-import java.net.URLEncoder;
-import java.nio.charset.StandardCharsets;
 import java.util.*;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Predicate;
-import java.util.stream.Collectors;
 
 @Slf4j
 public class GuildVoiceUpdateEventListener extends ListenerAdapter {
 
     private final Random rng;
-    private final List<File> welcomeAudioFiles;
-    private final List<File> goodbyeAudioFiles;
-    private final List<File> customAudioFiles;
-    private final ScheduledExecutorService scheduler;
-    private final AudioPlayerSendHandler audioPlayerSendHandler;
-    private final AudioPlayerLoadResultHandler audioPlayerLoadResultHandler;
+    private final AudioCatalog audioCatalog;
+    private final DeferredTaskService deferredTaskService;
+    private final GuildMailbox guildMailbox;
+    private final AudioPlayerRegistry audioPlayerRegistry;
     private final FileService fileService;
     //ID of a voice channel the bot must not join
     private static final String FORBIDDEN_VC_ID = "1247215648862502925";
 
 
-    public GuildVoiceUpdateEventListener(AudioFiles audioFiles, ScheduledExecutorService scheduler, AudioPlayerSendHandler audioPlayerSendHandler, AudioPlayerLoadResultHandler audioPlayerLoadResultHandler, FileService fileService) {
-        this.customAudioFiles = audioFiles.getCustomAudioFileList();
+    public GuildVoiceUpdateEventListener(AudioCatalog audioCatalog, DeferredTaskService deferredTaskService, GuildMailbox guildMailbox,
+                                         AudioPlayerRegistry audioPlayerRegistry, FileService fileService) {
+        this.audioCatalog = audioCatalog;
         this.fileService = fileService;
         this.rng = new Random();
-        this.welcomeAudioFiles = audioFiles.getWelcomeAudioFileList();
-        this.goodbyeAudioFiles = audioFiles.getGoodbyeAudioFileList();
-        this.scheduler = scheduler;
-        this.audioPlayerSendHandler = audioPlayerSendHandler;
-        this.audioPlayerLoadResultHandler = audioPlayerLoadResultHandler;
+        this.deferredTaskService = deferredTaskService;
+        this.guildMailbox = guildMailbox;
+        this.audioPlayerRegistry = audioPlayerRegistry;
     }
 
     /**
-     * Entry point for guild voice state changes. Evaluates join/move/leave events
-     * for members and coordinates connecting/disconnecting the bot and playing audio.
+     * Entry point for guild voice state changes. The event is posted to the mailbox of its guild, so the events
+     * of a guild, and the reconnects and sounds they delay, are handled one at a time and in order, while
+     * different guilds are handled in parallel.
      *
      * @param event the GuildVoiceUpdateEvent provided by JDA
      */
     @Override
     public void onGuildVoiceUpdate(@NotNull GuildVoiceUpdateEvent event) {
+        guildMailbox.execute(event.getGuild().getIdLong(), () -> handle(event));
+    }
+
+    /**
+     * Evaluates join/move/leave events for members and coordinates connecting/disconnecting
+     * the bot and playing audio. Runs on the guild mailbox.
+     *
+     * @param event the GuildVoiceUpdateEvent provided by JDA
+     */
+    private void handle(GuildVoiceUpdateEvent event) {
         Member member = event.getMember();
         AudioChannelUnion joinedChannelUnion = event.getChannelJoined();
         AudioChannelUnion leftChannelUnion = event.getChannelLeft();
@@ -79,15 +87,14 @@ public class GuildVoiceUpdateEventListener extends ListenerAdapter {
      */
     private void handleMemberJoin(AudioChannelUnion joinedChannel, Member member, AudioManager audioManager) {
         Optional.ofNullable(joinedChannel)
-                .filter(joinEvent -> fileService.notContainedInFile(fileService.getChannelNameWithoutEmoji(joinedChannel.getName())))
+                .filter(channel -> !fileService.isExcluded(channel.getIdLong()))
                 .map(channel -> {
-                    log.info("[JOIN EVENT] - {} joined {}", member.getUser().getName(), fileService.getChannelNameWithoutEmoji(channel.getName()));
+                    log.info("[JOIN EVENT] - {} joined {}", member.getUser().getName(), fileService.getChannelNameWithoutEmoji(channel));
                     return !audioManager.isConnected() ? channel : null;
                 }).ifPresent(
                         channel -> {
-                            log.info("[JOIN EVENT] - Bot joined {}", fileService.getChannelNameWithoutEmoji(channel.getName()));
-                            audioManager.openAudioConnection(channel);
-                            audioManager.setSendingHandler(audioPlayerSendHandler);
+                            log.info("[JOIN EVENT] - Bot joined {}", fileService.getChannelNameWithoutEmoji(channel));
+                            audioPlayerRegistry.connect(audioManager, channel);
                         }
                 );
     }
@@ -107,29 +114,24 @@ public class GuildVoiceUpdateEventListener extends ListenerAdapter {
 
         Optional.ofNullable(joinedChannel)
                 .filter(vc -> !FORBIDDEN_VC_ID.equals(vc.getId()))
-                .filter(joinEvent -> fileService.notContainedInFile(fileService.getChannelNameWithoutEmoji(joinedChannel.getName())))
+                .filter(channel -> !fileService.isExcluded(channel.getIdLong()))
                 .filter(channel -> !Objects.equals(channel, leftChannel))
                 .map(channel -> {
                     var movedChannel = audioManager.isConnected() && !Objects.equals(audioManager.getConnectedChannel(), channel) ? channel : null;
+                    AudioPlayerSendHandler audioPlayerSendHandler = audioPlayerRegistry.get(event.getGuild());
                     Optional.ofNullable(leftChannel)
                             .ifPresentOrElse(noLeftChannel -> {
                                 log.info("[MOVE EVENT] - clean queue and say hello");
                                 audioPlayerSendHandler.getTrackScheduler().clearQueueAndStop();
-                                customSayHello(member.getEffectiveName());
-                                playRandomAudio(welcomeAudioFiles, fileService.getChannelNameWithoutEmoji(joinedChannel.getName()));
-                            }, () -> {
-                                audioPlayerSendHandler.getTrackScheduler().nextTrack();
-                                customSayHello(member.getEffectiveName());
-                                playRandomAudio(welcomeAudioFiles, fileService.getChannelNameWithoutEmoji(joinedChannel.getName()));
-                                audioPlayerSendHandler.getTrackScheduler().nextTrack();
-                            });
+                                customSayHello(audioPlayerSendHandler, member.getEffectiveName(), fileService.getChannelNameWithoutEmoji(joinedChannel));
+                            }, () -> customSayHello(audioPlayerSendHandler, member.getEffectiveName(), fileService.getChannelNameWithoutEmoji(joinedChannel)));
                     return movedChannel;
                 })
                 .ifPresent(channel -> {
                     log.info("[MOVE EVENT] - Bot moved to new voice channel");
-                    audioPlayerSendHandler.getTrackScheduler().clearQueueAndStop();
+                    audioPlayerRegistry.get(event.getGuild()).getTrackScheduler().clearQueueAndStop();
                     audioManager.closeAudioConnection();
-                    scheduler.schedule(() -> audioManager.openAudioConnection(channel), 100, TimeUnit.MILLISECONDS);
+                    guildMailbox.schedule(event.getGuild().getIdLong(), () -> audioPlayerRegistry.connect(audioManager, channel), 100, TimeUnit.MILLISECONDS);
                 });
 
         //Someone left play goodbye
@@ -144,7 +146,7 @@ public class GuildVoiceUpdateEventListener extends ListenerAdapter {
                         .filter(channel -> !member.getUser().isBot()))
                 .ifPresent(channel -> {
                     log.info("[MOVE EVENT] - {} left, play a random goodbye sound", member.getUser().getName());
-                    scheduler.schedule(() -> playRandomAudio(goodbyeAudioFiles, ""), 200, TimeUnit.MILLISECONDS);
+                    guildMailbox.schedule(event.getGuild().getIdLong(), () -> playRandomAudio(audioPlayerRegistry.get(event.getGuild()), AudioCategory.GOODBYE, ""), 200, TimeUnit.MILLISECONDS);
                 });
 
         //Move event where bot cant join forbidden channel and it's alone in a previous one
@@ -155,7 +157,7 @@ public class GuildVoiceUpdateEventListener extends ListenerAdapter {
                         .filter(jc -> FORBIDDEN_VC_ID.equals(jc.getId())))
                 .ifPresent(jc -> {
                     log.info("[LEFT EVENT] - Bot is alone in voice chat and cant connect to {}", jc.getName());
-                    audioPlayerSendHandler.getTrackScheduler().clearQueueAndStop();
+                    audioPlayerRegistry.get(event.getGuild()).getTrackScheduler().clearQueueAndStop();
                     audioManager.closeAudioConnection();
                 });
 
@@ -176,7 +178,7 @@ public class GuildVoiceUpdateEventListener extends ListenerAdapter {
                 .filter(channel -> channel.getMembers().size() == 1 && channel.getMembers().get(0).equals(event.getGuild().getSelfMember()))
                 .ifPresent(channel -> {
                     log.info("[LEFT EVENT] - Bot disconnected from voice channel because it was the only member");
-                    audioPlayerSendHandler.getTrackScheduler().clearQueueAndStop();
+                    audioPlayerRegistry.get(event.getGuild()).getTrackScheduler().clearQueueAndStop();
                     audioManager.closeAudioConnection();
                 });
     }
@@ -197,7 +199,7 @@ public class GuildVoiceUpdateEventListener extends ListenerAdapter {
                 .filter(vc -> !FORBIDDEN_VC_ID.equals(vc.getId()))
                 .ifPresent(channel -> {
                     log.info("[LEFT EVENT] - Bot is alone in voice chat with other bots and should disconnected");
-                    audioPlayerSendHandler.getTrackScheduler().clearQueueAndStop();
+                    audioPlayerRegistry.get(audioManager.getGuild()).getTrackScheduler().clearQueueAndStop();
                     audioManager.closeAudioConnection();
                 });
 
@@ -223,9 +225,7 @@ public class GuildVoiceUpdateEventListener extends ListenerAdapter {
                 .filter(isBotAndSizeIsOne -> isBotAndSizeIsOne)
                 .flatMap(channel -> Optional.ofNullable(joinedChannelUnion)
                         .filter(vc -> !FORBIDDEN_VC_ID.equals(vc.getId()))
-                        .map(Channel::getName)
-                        .map(fileService::getChannelNameWithoutEmoji)
-                        .filter(channelName -> !fileService.notContainedInFile(channelName)))
+                        .filter(vc -> fileService.isExcluded(vc.getIdLong())))
                 .ifPresent(contained -> {
                     audioManager.closeAudioConnection();
                     log.info("[BOT] - Bot cant connect to the new channel and is alone in the old one, disconnecting");
@@ -237,19 +237,20 @@ public class GuildVoiceUpdateEventListener extends ListenerAdapter {
         log.info("[BOT] - Hello {}!", user);
         String encodedUser = encodeURL(user);
         String identifier = String.format("ftts://%s", encodedUser);
-        audioPlayerSendHandler.getAudioPlayerManager().loadItem(identifier, audioPlayerLoadResultHandler);
+        audioPlayerSendHandler.loadItem(identifier);
     }*/
 
     /**
-     * Schedules and triggers a text-to-speech greeting for a given username by
-     * constructing a TTS identifier (with a randomized suffix) and loading it via
-     * the audio player manager.
+     * Greets a user with a text-to-speech of the name followed by a random welcome clip,
+     * played as a single greeting (see {@link AudioPlayerSendHandler#greet}).
      *
-     * @param user the display name of the user to greet
+     * @param audioPlayerSendHandler the audio pipeline of the guild
+     * @param user                   the display name of the user to greet
+     * @param voiceChannelName       the (normalized) name of the voice channel used to pick the welcome clip
      */
-    private void customSayHello(String user) {
+    private void customSayHello(AudioPlayerSendHandler audioPlayerSendHandler, String user, String voiceChannelName) {
 
-        scheduler.schedule(() -> log.info("Waiting 500ms to say hello"), 500, TimeUnit.MILLISECONDS);
+        deferredTaskService.schedule(() -> log.info("Waiting 500ms to say hello"), 500, TimeUnit.MILLISECONDS);
 
         log.info("[BOT] - Hello {}!", user);
         /*String identifier = "";
@@ -264,34 +265,34 @@ public class GuildVoiceUpdateEventListener extends ListenerAdapter {
         }*/
 
         //Forced jap voice
-        String identifier = String.format("ftts://%s", urlEncodeTex(user));
-        audioPlayerSendHandler.getAudioPlayerManager().loadItem(identifier, audioPlayerLoadResultHandler);
+        randomAudioClip(AudioCategory.WELCOME, voiceChannelName)
+                .ifPresentOrElse(welcomeClip -> audioPlayerSendHandler.greet(user, welcomeClip),
+                        () -> audioPlayerSendHandler.loadItem(TtsRequest.identifierOf(user), TrackPriority.GREETING));
     }
 
     /**
-     * Percent-encodes each character of the input string for safe inclusion in a URL,
-     * using UTF-8 and replacing spaces with %20.
+     * Plays a random audio file of the category, see {@link #randomAudioClip}.
      *
-     * @param input the raw string to encode
-     * @return the URL-encoded representation of the input
+     * @param audioPlayerSendHandler the audio pipeline of the guild
+     * @param category               the fallback catalog category to choose from
+     * @param voiceChannelName       the (normalized) name of the voice channel used to pick filters
      */
-    private String urlEncodeTex(String input) {
-        return input.chars()
-                .mapToObj(c -> (char) c)
-                .map(ch -> ch == ' ' ? "%20" : URLEncoder.encode(String.valueOf(ch), StandardCharsets.UTF_8))
-                .collect(Collectors.joining());
+    private void playRandomAudio(AudioPlayerSendHandler audioPlayerSendHandler, AudioCategory category, String voiceChannelName) {
+        randomAudioClip(category, voiceChannelName)
+                .ifPresent(audioClip -> audioPlayerSendHandler.play(audioClip, TrackPriority.GREETING));
     }
 
     /**
-     * Selects and plays a random audio file from the provided list, optionally
-     * choosing a custom audio pool based on keywords extracted from the voice channel name.
+     * Selects a random audio file of the category, optionally choosing a custom audio pool
+     * based on keywords extracted from the voice channel name.
      *
-     * @param audio            the fallback list of audio files to choose from
+     * @param category         the fallback catalog category to choose from
      * @param voiceChannelName the (normalized) name of the voice channel used to pick filters
+     * @return the clip, or empty if the pool is empty
      */
-    private void playRandomAudio(List<File> audio, String voiceChannelName) {
-        Map<String, Predicate<File>> filters = Map.of(
-                "LOVEEEEEE", file -> file.getName().toUpperCase().contains("LOVEEEEEE")
+    private Optional<AudioClip> randomAudioClip(AudioCategory category, String voiceChannelName) {
+        Map<String, Predicate<AudioClip>> filters = Map.of(
+                "LOVEEEEEE", clip -> clip.getId().toUpperCase().contains("LOVEEEEEE")
                 //"DALARAN", file -> file.getName().toUpperCase().contains("DALARAN")
                 //"CINEMA", file -> file.getName().toUpperCase().contains("CINEMA")
         );
@@ -299,15 +300,19 @@ public class GuildVoiceUpdateEventListener extends ListenerAdapter {
                 .filter(keyword -> voiceChannelName.toUpperCase().contains(keyword))
                 .findFirst();
         var audioSelected = filterKeyword
-                .map(keyword -> new ArrayList<>(customAudioFiles))
-                .orElse((ArrayList<File>) audio);
-        audioPlayerSendHandler.getAudioPlayerManager().loadItem(getRandomAudioFilePath(audioSelected), audioPlayerLoadResultHandler);
+                .map(keyword -> audioCatalog.getClips(AudioCategory.CUSTOM))
+                .orElse(audioCatalog.getClips(category));
+        if (audioSelected.isEmpty()) {
+            log.info("[BOT] - No audio available for {}", category);
+            return Optional.empty();
+        }
         log.info("[BOT] - Audio list selected is {}", filterKeyword.orElse("the default one"));
+        return Optional.of(getRandomAudioClip(audioSelected));
     }
 
-    private String getRandomAudioFilePath(List<File> audioFiles) {
-        int randomIndex = rng.nextInt(audioFiles.size());
-        return audioFiles.get(randomIndex).getAbsolutePath();
+    private AudioClip getRandomAudioClip(List<AudioClip> audioClips) {
+        int randomIndex = rng.nextInt(audioClips.size());
+        return audioClips.get(randomIndex);
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,110 @@
+package lepo.bot.filemanager;
+
+import net.dv8tion.jda.api.entities.channel.Channel;
+import net.dv8tion.jda.api.events.channel.ChannelDeleteEvent;
+import net.dv8tion.jda.api.events.channel.update.ChannelUpdateNameEvent;
+import net.dv8tion.jda.api.hooks.ListenerAdapter;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Removes emoji and leading whitespace from channel names.
+ * Emoji are looked up in a table precomputed from the unicode blocks we treat as emoji,
+ * names that need no change are returned as they are (no allocation), and results are
+ * cached per channel ID until the channel is renamed or deleted.
+ */
+public class ChannelNameNormalizer extends ListenerAdapter {
+
+    private static final String DEFAULT_CHANNEL_NAME = "Canale vocale";
+    private static final int EMOJI_TABLE_START = 0x1F300;
+    private static final int EMOJI_TABLE_END = 0x1FA00;
+    private static final boolean[] EMOJI_TABLE = buildEmojiTable();
+
+    private final Map<Long, String> channelNames = new ConcurrentHashMap<>();
+
+    /**
+     * @param channel the channel to name
+     * @return the cached name of the channel without emoji
+     */
+    public String getChannelName(Channel channel) {
+        return channelNames.computeIfAbsent(channel.getIdLong(), id -> normalize(channel.getName()));
+    }
+
+    @Override
+    public void onChannelUpdateName(@NotNull ChannelUpdateNameEvent event) {
+        channelNames.remove(event.getChannel().getIdLong());
+    }
+
+    @Override
+    public void onChannelDelete(@NotNull ChannelDeleteEvent event) {
+        channelNames.remove(event.getChannel().getIdLong());
+    }
+
+    public static boolean isEmoji(int codePoint) {
+        int index = codePoint - EMOJI_TABLE_START;
+        return index >= 0 && index < EMOJI_TABLE.length && EMOJI_TABLE[index];
+    }
+
+    /**
+     * Drops every emoji code point, then the whitespace left at the start of the name.
+     * A name made only of emoji becomes {@value #DEFAULT_CHANNEL_NAME}.
+     *
+     * @param input the raw channel name
+     * @return the normalised name, the input itself when nothing has to be removed
+     */
+    public static String normalize(String input) {
+        if (!needsRewrite(input)) {
+            return input;
+        }
+        StringBuilder builder = new StringBuilder(input.length());
+        boolean anyKept = false;
+        for (int i = 0; i < input.length(); ) {
+            int codePoint = input.codePointAt(i);
+            i += Character.charCount(codePoint);
+            if (isEmoji(codePoint)) {
+                continue;
+            }
+            anyKept = true;
+            if (builder.length() > 0 || !isWhitespace(codePoint)) {
+                builder.appendCodePoint(codePoint);
+            }
+        }
+        return anyKept ? builder.toString() : DEFAULT_CHANNEL_NAME;
+    }
+
+    private static boolean needsRewrite(String input) {
+        if (input.isEmpty() || isWhitespace(input.charAt(0))) {
+            return true;
+        }
+        for (int i = 0; i < input.length(); ) {
+            int codePoint = input.codePointAt(i);
+            if (isEmoji(codePoint)) {
+                return true;
+            }
+            i += Character.charCount(codePoint);
+        }
+        return false;
+    }
+
+    /**
+     * Same characters as the regex {@code \s}
+     */
+    private static boolean isWhitespace(int codePoint) {
+        return codePoint == ' ' || (codePoint >= '\t' && codePoint <= '\r');
+    }
+
+    private static boolean[] buildEmojiTable() {
+        boolean[] table = new boolean[EMOJI_TABLE_END - EMOJI_TABLE_START];
+        for (int codePoint = EMOJI_TABLE_START; codePoint < EMOJI_TABLE_END; codePoint++) {
+            Character.UnicodeBlock block = Character.UnicodeBlock.of(codePoint);
+            table[codePoint - EMOJI_TABLE_START] = block == Character.UnicodeBlock.MISCELLANEOUS_SYMBOLS_AND_PICTOGRAPHS
+                    || block == Character.UnicodeBlock.EMOTICONS
+                    || block == Character.UnicodeBlock.TRANSPORT_AND_MAP_SYMBOLS
+                    || block == Character.UnicodeBlock.SUPPLEMENTAL_SYMBOLS_AND_PICTOGRAPHS;
+        }
+        return table;
+    }
+
+}
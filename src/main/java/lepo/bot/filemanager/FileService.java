@@ -1,77 +1,242 @@
 package lepo.bot.filemanager;
 
-import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.stereotype.Service;
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.entities.channel.Channel;
 
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
-import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
-import java.util.stream.Collectors;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+/**
+ * Voice channels where the bot must not connect, stored per guild by channel ID.
+ * Lookups hit an in-memory {@link LongHashSet} snapshot of every excluded channel
+ * (snowflakes are unique across guilds, so one probe answers for any guild);
+ * changes are written back to {@link #pathAndFileName} asynchronously, several
+ * changes close together producing a single write.
+ * File format: one {@code guildId channelId} pair per line.
+ */
 @Slf4j
-@Service
-@AllArgsConstructor
 public class FileService {
 
+    private static final long WRITE_DELAY_MS = 500;
+    private static final long RELOAD_PERIOD_SECONDS = 30;
+    private static final String SEPARATOR = " ";
+
     private final Path pathAndFileName;
+    private final Path legacyPathAndFileName;
+    private final ChannelNameNormalizer channelNameNormalizer;
+    private final Map<Long, LongHashSet> excludedChannelsByGuild;
+    private final ScheduledExecutorService writer;
+    private final AtomicBoolean writeScheduled;
+    private volatile LongHashSet excludedChannelIds;
+    private volatile FileTime lastKnownModifiedTime;
+
+    /**
+     * @param pathAndFileName        the file holding the excluded channel IDs
+     * @param legacyPathAndFileName  the old name based file, migrated once by {@link #migrateLegacyNames(List)}
+     * @param channelNameNormalizer  cache of channel names without emoji
+     * @param reloadOnExternalChange if true the file is polled and reloaded when edited by hand
+     */
+    public FileService(Path pathAndFileName, Path legacyPathAndFileName, ChannelNameNormalizer channelNameNormalizer, boolean reloadOnExternalChange) {
+        this.pathAndFileName = pathAndFileName;
+        this.legacyPathAndFileName = legacyPathAndFileName;
+        this.channelNameNormalizer = channelNameNormalizer;
+        this.excludedChannelsByGuild = new HashMap<>();
+        this.excludedChannelIds = new LongHashSet();
+        this.writeScheduled = new AtomicBoolean(false);
+        this.writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "excluded-channels-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        load();
+        if (reloadOnExternalChange) {
+            writer.scheduleWithFixedDelay(this::reloadIfChanged, RELOAD_PERIOD_SECONDS, RELOAD_PERIOD_SECONDS, TimeUnit.SECONDS);
+        }
+    }
+
+    public boolean isExcluded(long channelId) {
+        return excludedChannelIds.contains(channelId);
+    }
+
+    public synchronized void exclude(long guildId, long channelId) {
+        if (excludedChannelsByGuild.computeIfAbsent(guildId, id -> new LongHashSet()).add(channelId)) {
+            publish();
+            schedulePersist();
+            log.info("{} added from channels where the bot cant connect", channelId);
+        }
+    }
+
+    public synchronized void include(long guildId, long channelId) {
+        LongHashSet excluded = excludedChannelsByGuild.get(guildId);
+        if (Objects.nonNull(excluded) && excluded.remove(channelId)) {
+            publish();
+            schedulePersist();
+            log.info("{} removed from channels where the bot cant connect", channelId);
+        }
+    }
 
-    public void writeToFilePath(String input) {
+    /**
+     * One-time migration from the old file, which stored emoji-stripped channel names shared by every guild.
+     * Each voice channel whose normalised name is listed gets excluded by ID, then the old file is renamed.
+     *
+     * @param guilds the guilds the bot is in, with their channel cache loaded
+     */
+    public synchronized void migrateLegacyNames(List<Guild> guilds) {
+        if (!Files.exists(legacyPathAndFileName)) {
+            return;
+        }
         try {
-            Files.write(pathAndFileName, (input + System.lineSeparator()).getBytes(), StandardOpenOption.APPEND, StandardOpenOption.CREATE);
-            log.info("{} added from channels where the bot cant connect", input);
+            Set<String> legacyNames = new HashSet<>(Files.readAllLines(legacyPathAndFileName));
+            guilds.forEach(guild -> guild.getVoiceChannels().stream()
+                    .filter(channel -> legacyNames.contains(getChannelNameWithoutEmoji(channel)))
+                    .forEach(channel -> exclude(guild.getIdLong(), channel.getIdLong())));
+            Files.move(legacyPathAndFileName, legacyPathAndFileName.resolveSibling(legacyPathAndFileName.getFileName() + ".migrated"), StandardCopyOption.REPLACE_EXISTING);
+            log.info("Migrated {} excluded channel names to channel IDs", legacyNames.size());
         } catch (IOException e) {
             log.info(e.getMessage());
         }
     }
 
-    public void removeFromFile(String input) {
+    /**
+     * Writes any pending change and stops the writer thread.
+     */
+    public void close() {
+        writer.shutdownNow();
+        if (writeScheduled.get()) {
+            persist();
+        }
+    }
+
+    /**
+     * Parses the file into a new map and swaps it in only once the whole file was read, so a failed read keeps
+     * the channels already loaded. Lines that are not a valid pair of IDs are skipped and logged.
+     */
+    private synchronized void load() {
         try {
-            List<String> lines = Files.readAllLines(pathAndFileName);
-            List<String> filteredLines = lines.stream()
-                    .filter(line -> !line.equals(input))
-                    .collect(Collectors.toList());
-            Files.write(pathAndFileName, filteredLines);
-            log.info("{} removed from channels where the bot cant connect", input);
+            FileTime modifiedTime = Files.getLastModifiedTime(pathAndFileName);
+            Map<Long, LongHashSet> loaded = new HashMap<>();
+            Files.readAllLines(pathAndFileName).stream()
+                    .filter(line -> !line.isBlank())
+                    .forEach(line -> parse(line).ifPresentOrElse(
+                            ids -> loaded.computeIfAbsent(ids[0], id -> new LongHashSet()).add(ids[1]),
+                            () -> log.info("Invalid line '{}' in {} skipped", line, pathAndFileName)));
+            excludedChannelsByGuild.clear();
+            excludedChannelsByGuild.putAll(loaded);
+            publish();
+            lastKnownModifiedTime = modifiedTime;
+            log.info("Loaded {} excluded channels", excludedChannelIds.size());
+        } catch (NoSuchFileException e) {
+            log.info("{} not found, no excluded channels", pathAndFileName);
         } catch (IOException e) {
-            log.info(e.getMessage());
+            log.info("Cannot read {}: {}", pathAndFileName, e.getMessage());
         }
     }
 
-    public boolean notContainedInFile(String input) {
+    /**
+     * @return the guild and channel IDs of the line, or empty if they are not two positive snowflakes
+     */
+    private static Optional<long[]> parse(String line) {
+        String[] ids = line.trim().split(SEPARATOR);
+        if (ids.length != 2) {
+            return Optional.empty();
+        }
         try {
-            List<String> lines = Files.readAllLines(pathAndFileName);
-            Optional<String> matchingLine = lines.stream()
-                    .filter(line -> line.equals(input))
-                    .findFirst();
-            return matchingLine.isEmpty();
+            long guildId = Long.parseLong(ids[0]);
+            long channelId = Long.parseLong(ids[1]);
+            return guildId > 0 && channelId > 0 ? Optional.of(new long[]{guildId, channelId}) : Optional.empty();
+        } catch (NumberFormatException e) {
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Swaps in a new lookup snapshot; readers never see a set being modified.
+     */
+    private void publish() {
+        LongHashSet snapshot = new LongHashSet();
+        excludedChannelsByGuild.values().forEach(snapshot::addAll);
+        excludedChannelIds = snapshot;
+    }
+
+    private void schedulePersist() {
+        if (writeScheduled.compareAndSet(false, true)) {
+            writer.schedule(this::persist, WRITE_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Writes a snapshot of the store to a temporary file and moves it over the real one,
+     * so a crash never leaves a half written list.
+     */
+    private synchronized void persist() {
+        writeScheduled.set(false);
+        List<String> lines = new ArrayList<>();
+        new TreeMap<>(excludedChannelsByGuild).forEach((guildId, channelIds) -> Arrays.stream(channelIds.toArray())
+                .forEach(channelId -> lines.add(guildId + SEPARATOR + channelId)));
+        try {
+            Path tmp = pathAndFileName.resolveSibling(pathAndFileName.getFileName() + ".tmp");
+            Files.write(tmp, lines);
+            Files.move(tmp, pathAndFileName, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            lastKnownModifiedTime = Files.getLastModifiedTime(pathAndFileName);
         } catch (IOException e) {
             log.info(e.getMessage());
-            return true;
         }
     }
 
-    public String getChannelNameWithoutEmoji(String input) {
-        return input.codePoints()
-                .mapToObj(c -> new String(Character.toChars(c)))
-                .collect(Collectors.collectingAndThen(
-                        Collectors.partitioningBy(this::isEmoji),
-                        result -> {
-                            String channelNameWithoutEmoji = result.get(false).isEmpty()
-                                    ? "Canale vocale"
-                                    : String.join("", result.get(false));
-                            return channelNameWithoutEmoji.replaceFirst("^\\s+", ""); // Sometimes the channel name starts with a space — i want to remove that
-                        }));
+    /**
+     * A missing file means no excluded channels: it is the normal state of a fresh install, so it is not logged
+     * on every poll, only once if a file loaded earlier gets deleted.
+     */
+    private synchronized void reloadIfChanged() {
+        if (writeScheduled.get()) {
+            return;
+        }
+        try {
+            FileTime modifiedTime = Files.getLastModifiedTime(pathAndFileName);
+            if (!Objects.equals(modifiedTime, lastKnownModifiedTime)) {
+                log.info("{} changed on disk, reloading", pathAndFileName);
+                load();
+            }
+        } catch (NoSuchFileException e) {
+            if (Objects.nonNull(lastKnownModifiedTime)) {
+                log.info("{} deleted, no excluded channels", pathAndFileName);
+                lastKnownModifiedTime = null;
+                excludedChannelsByGuild.clear();
+                publish();
+            }
+        } catch (IOException e) {
+            log.info("Cannot check {} for changes: {}", pathAndFileName, e.getMessage());
+        } catch (RuntimeException e) {
+            // an exception escaping a periodic task would cancel the polling for good
+            log.info("Reload of {} failed: {}", pathAndFileName, e.toString());
+        }
     }
 
-    public boolean isEmoji(String input) {
-        return input.codePoints().allMatch(c -> Character.UnicodeBlock.of(c) == Character.UnicodeBlock.MISCELLANEOUS_SYMBOLS_AND_PICTOGRAPHS ||
-                Character.UnicodeBlock.of(c) == Character.UnicodeBlock.EMOTICONS ||
-                Character.UnicodeBlock.of(c) == Character.UnicodeBlock.TRANSPORT_AND_MAP_SYMBOLS ||
-                Character.UnicodeBlock.of(c) == Character.UnicodeBlock.SUPPLEMENTAL_SYMBOLS_AND_PICTOGRAPHS);
+    /**
+     * @param channel the channel to name
+     * @return the channel name without emoji, cached per channel
+     */
+    public String getChannelNameWithoutEmoji(Channel channel) {
+        return channelNameNormalizer.getChannelName(channel);
     }
 
-}
\ No newline at end of file
+}
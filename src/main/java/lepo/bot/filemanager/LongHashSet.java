@@ -0,0 +1,120 @@
+package lepo.bot.filemanager;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing hash set of Discord snowflakes stored as primitive longs (no boxing).
+ * 0 is never a valid snowflake and marks empty slots.
+ * Not thread safe: {@link FileService} only mutates it under its own lock and publishes copies.
+ */
+final class LongHashSet {
+
+    private static final long EMPTY = 0L;
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] table;
+    private int size;
+
+    LongHashSet() {
+        this.table = new long[MIN_CAPACITY];
+    }
+
+    boolean contains(long value) {
+        if (value == EMPTY) {
+            return false;
+        }
+        long[] slots = table;
+        int mask = slots.length - 1;
+        int index = mix(value) & mask;
+        long current;
+        while ((current = slots[index]) != EMPTY) {
+            if (current == value) {
+                return true;
+            }
+            index = (index + 1) & mask;
+        }
+        return false;
+    }
+
+    boolean add(long value) {
+        if (value == EMPTY) {
+            throw new IllegalArgumentException("0 is not a valid snowflake");
+        }
+        if (contains(value)) {
+            return false;
+        }
+        if ((size + 1) * 2 > table.length) {
+            resize(table.length * 2);
+        }
+        insert(table, value);
+        size++;
+        return true;
+    }
+
+    boolean remove(long value) {
+        if (!contains(value)) {
+            return false;
+        }
+        int mask = table.length - 1;
+        int index = mix(value) & mask;
+        while (table[index] != value) {
+            index = (index + 1) & mask;
+        }
+        table[index] = EMPTY;
+        size--;
+        // Re-insert the rest of the cluster so later probes do not stop at the hole
+        int next = (index + 1) & mask;
+        while (table[next] != EMPTY) {
+            long moved = table[next];
+            table[next] = EMPTY;
+            insert(table, moved);
+            next = (next + 1) & mask;
+        }
+        return true;
+    }
+
+    void addAll(LongHashSet other) {
+        for (long value : other.table) {
+            if (value != EMPTY) {
+                add(value);
+            }
+        }
+    }
+
+    long[] toArray() {
+        return Arrays.stream(table).filter(value -> value != EMPTY).sorted().toArray();
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    private void resize(int capacity) {
+        long[] resized = new long[capacity];
+        for (long value : table) {
+            if (value != EMPTY) {
+                insert(resized, value);
+            }
+        }
+        table = resized;
+    }
+
+    private static void insert(long[] slots, long value) {
+        int mask = slots.length - 1;
+        int index = mix(value) & mask;
+        while (slots[index] != EMPTY) {
+            index = (index + 1) & mask;
+        }
+        slots[index] = value;
+    }
+
+    private static int mix(long value) {
+        long hash = value * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32));
+    }
+
+}
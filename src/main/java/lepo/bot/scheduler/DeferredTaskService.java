@@ -0,0 +1,107 @@
+package lepo.bot.scheduler;
+
+import lombok.extern.slf4j.Slf4j;
+import net.dv8tion.jda.api.interactions.InteractionHook;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Single timer shared by every interaction: ephemeral reply cleanup, delayed reconnects, delayed sounds.
+ * One daemon thread runs all deferred tasks, so the thread count does not grow with the number of
+ * interactions; cancelled tasks are removed from the queue right away instead of waiting for their delay.
+ * Tasks must be short: anything slow should only be queued from here (e.g. JDA RestAction#queue).
+ */
+@Slf4j
+public class DeferredTaskService {
+
+    private final ScheduledThreadPoolExecutor executor;
+    private final AtomicLong scheduled;
+    private final AtomicLong executed;
+    private final AtomicLong cancelled;
+    private final AtomicLong failed;
+
+    public DeferredTaskService() {
+        this.executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "deferred-tasks");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executor.setRemoveOnCancelPolicy(true);
+        this.executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        this.scheduled = new AtomicLong();
+        this.executed = new AtomicLong();
+        this.cancelled = new AtomicLong();
+        this.failed = new AtomicLong();
+    }
+
+    /**
+     * @param task  the task to run
+     * @param delay the delay before running it
+     * @param unit  the unit of the delay
+     * @return a handle to cancel the task
+     */
+    public DeferredTask schedule(Runnable task, long delay, TimeUnit unit) {
+        scheduled.incrementAndGet();
+        return new DeferredTask(executor.schedule(() -> run(task), delay, unit));
+    }
+
+    /**
+     * Reply callback deleting the original interaction message after the given delay.
+     */
+    public Consumer<InteractionHook> deleteOriginalAfter(long delay, TimeUnit unit) {
+        return interactionHook -> schedule(() -> interactionHook.deleteOriginal().queue(), delay, unit);
+    }
+
+    public long getPendingCount() {
+        return executor.getQueue().size();
+    }
+
+    public void logMetrics() {
+        log.info("Deferred tasks: scheduled {}, executed {}, cancelled {}, failed {}, pending {}",
+                scheduled.get(), executed.get(), cancelled.get(), failed.get(), getPendingCount());
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private void run(Runnable task) {
+        try {
+            task.run();
+            executed.incrementAndGet();
+        } catch (RuntimeException e) {
+            failed.incrementAndGet();
+            log.info("Deferred task failed: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Handle of a scheduled task.
+     */
+    public final class DeferredTask {
+
+        private final ScheduledFuture<?> future;
+
+        private DeferredTask(ScheduledFuture<?> future) {
+            this.future = future;
+        }
+
+        public boolean cancel() {
+            boolean isCancelled = future.cancel(false);
+            if (isCancelled) {
+                cancelled.incrementAndGet();
+            }
+            return isCancelled;
+        }
+
+        public boolean isDone() {
+            return future.isDone();
+        }
+
+    }
+
+}
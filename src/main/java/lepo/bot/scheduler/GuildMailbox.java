@@ -0,0 +1,154 @@
+package lepo.bot.scheduler;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One mailbox per guild: the tasks of a guild run one at a time, in the order they were posted, while the tasks
+ * of different guilds run in parallel on a small shared pool. Voice events, and the reconnects and sounds they
+ * delay, are posted here, so the connection of a guild is only ever decided by one task at a time without locks.
+ *
+ * <p>A mailbox with tasks occupies at most one pool thread and gives it back after each task, so a busy guild
+ * does not starve the others. Delayed tasks wait on the {@link DeferredTaskService} timer and are then posted
+ * behind whatever the guild received meanwhile.</p>
+ */
+@Slf4j
+public class GuildMailbox {
+
+    private final ExecutorService executor;
+    private final DeferredTaskService deferredTaskService;
+    private final Map<Long, Mailbox> mailboxes;
+    private final AtomicLong posted;
+    private final AtomicLong executed;
+    private final AtomicLong failed;
+
+    /**
+     * @param deferredTaskService the timer of the delayed tasks
+     * @param threads             guilds handled at the same time
+     */
+    public GuildMailbox(DeferredTaskService deferredTaskService, int threads) {
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "guild-mailbox");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.deferredTaskService = deferredTaskService;
+        this.mailboxes = new ConcurrentHashMap<>();
+        this.posted = new AtomicLong();
+        this.executed = new AtomicLong();
+        this.failed = new AtomicLong();
+    }
+
+    /**
+     * @param guildId the guild the task acts on
+     * @param task    the task, run after the tasks already posted for the guild
+     */
+    public void execute(long guildId, Runnable task) {
+        posted.incrementAndGet();
+        mailboxes.computeIfAbsent(guildId, Mailbox::new).post(task);
+    }
+
+    /**
+     * @param guildId the guild the task acts on
+     * @param task    the task, posted to the guild mailbox once the delay is over
+     * @param delay   the delay before posting it
+     * @param unit    the unit of the delay
+     * @return a handle to cancel the task while it is still waiting
+     */
+    public DeferredTaskService.DeferredTask schedule(long guildId, Runnable task, long delay, TimeUnit unit) {
+        return deferredTaskService.schedule(() -> execute(guildId, task), delay, unit);
+    }
+
+    public void logMetrics() {
+        long pending = mailboxes.values().stream().mapToLong(Mailbox::size).sum();
+        log.info("Guild mailboxes: {} guilds, posted {}, executed {}, failed {}, pending {}",
+                mailboxes.size(), posted.get(), executed.get(), failed.get(), pending);
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private final class Mailbox {
+
+        private final long guildId;
+        private final Deque<Runnable> tasks;
+        private boolean scheduled;
+
+        private Mailbox(long guildId) {
+            this.guildId = guildId;
+            this.tasks = new ArrayDeque<>();
+        }
+
+        private void post(Runnable task) {
+            synchronized (this) {
+                tasks.addLast(task);
+                if (scheduled) {
+                    return;
+                }
+                scheduled = true;
+            }
+            submit();
+        }
+
+        /**
+         * Runs the oldest task, then hands the thread back and queues itself again if more tasks are waiting.
+         * The mailbox moves on whatever the task throws, errors included, otherwise the guild would stall.
+         */
+        private void runNext() {
+            Runnable task;
+            synchronized (this) {
+                task = tasks.pollFirst();
+            }
+            try {
+                task.run();
+                executed.incrementAndGet();
+            } catch (Throwable e) {
+                failed.incrementAndGet();
+                log.info("Task of guild {} failed: {}", guildId, e.toString());
+                if (e instanceof Error) {
+                    throw (Error) e;
+                }
+            } finally {
+                release();
+            }
+        }
+
+        private void release() {
+            synchronized (this) {
+                if (tasks.isEmpty()) {
+                    scheduled = false;
+                    return;
+                }
+            }
+            submit();
+        }
+
+        private void submit() {
+            try {
+                executor.execute(this::runNext);
+            } catch (RejectedExecutionException e) {
+                synchronized (this) {
+                    log.info("Guild {} mailbox closed, {} tasks dropped", guildId, tasks.size());
+                    tasks.clear();
+                    scheduled = false;
+                }
+            }
+        }
+
+        private synchronized int size() {
+            return tasks.size();
+        }
+
+    }
+
+}
@@ -0,0 +1,102 @@
+package lepo.bot.slashcommand;
+
+import lepo.bot.scheduler.DeferredTaskService;
+import lombok.extern.slf4j.Slf4j;
+import net.dv8tion.jda.api.events.interaction.command.CommandAutoCompleteInteractionEvent;
+import net.dv8tion.jda.api.events.interaction.command.SlashCommandInteractionEvent;
+import net.dv8tion.jda.api.events.interaction.component.ButtonInteractionEvent;
+import net.dv8tion.jda.api.events.interaction.component.GenericComponentInteractionCreateEvent;
+import net.dv8tion.jda.api.events.interaction.component.StringSelectInteractionEvent;
+import net.dv8tion.jda.api.hooks.EventListener;
+import net.dv8tion.jda.api.hooks.ListenerAdapter;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The only interaction listener registered in JDA. Every interaction is dispatched through a map
+ * to exactly one handler instance:
+ * slash commands and autocomplete by command name, buttons and select menus by component ID prefix
+ * (the part before {@link #COMPONENT_ID_SEPARATOR}, or the whole ID when there is none).
+ */
+@Slf4j
+public class InteractionRouter extends ListenerAdapter {
+
+    public static final String COMPONENT_ID_SEPARATOR = ":";
+
+    private final Map<String, Command> commandMap;
+    private final Map<String, EventListener> autocompleteMap;
+    private final Map<String, EventListener> componentMap;
+    private final DeferredTaskService deferredTaskService;
+
+    /**
+     * @param commandMap          slash command handlers by command name
+     * @param autocompleteMap     autocomplete handlers by command name
+     * @param componentMap        button and select menu handlers by component ID prefix
+     * @param deferredTaskService timer used to delete the unsupported command reply
+     */
+    public InteractionRouter(Map<String, Command> commandMap, Map<String, EventListener> autocompleteMap, Map<String, EventListener> componentMap, DeferredTaskService deferredTaskService) {
+        this.commandMap = commandMap;
+        this.autocompleteMap = autocompleteMap;
+        this.componentMap = componentMap;
+        this.deferredTaskService = deferredTaskService;
+    }
+
+    /**
+     * Builds a component ID routed to the handler registered for {@code prefix}.
+     */
+    public static String componentId(String prefix, String value) {
+        return prefix + COMPONENT_ID_SEPARATOR + value;
+    }
+
+    /**
+     * @return the part of a component ID after the routing prefix
+     */
+    public static String componentValue(String componentId) {
+        return componentId.substring(componentId.indexOf(COMPONENT_ID_SEPARATOR) + 1);
+    }
+
+    @Override
+    public void onSlashCommandInteraction(@NotNull SlashCommandInteractionEvent event) {
+        if (event.getGuild() == null)
+            return;
+        Command command = commandMap.get(event.getName());
+        if (command != null) {
+            command.execute(event);
+        } else {
+            event.reply("Comando non supportato al momento")
+                    .setEphemeral(true)
+                    .queue(deferredTaskService.deleteOriginalAfter(3, TimeUnit.SECONDS));
+        }
+    }
+
+    @Override
+    public void onCommandAutoCompleteInteraction(@NotNull CommandAutoCompleteInteractionEvent event) {
+        Optional.ofNullable(autocompleteMap.get(event.getName()))
+                .ifPresent(listener -> listener.onEvent(event));
+    }
+
+    @Override
+    public void onButtonInteraction(@NotNull ButtonInteractionEvent event) {
+        routeComponent(event);
+    }
+
+    @Override
+    public void onStringSelectInteraction(@NotNull StringSelectInteractionEvent event) {
+        routeComponent(event);
+    }
+
+    private void routeComponent(GenericComponentInteractionCreateEvent event) {
+        String componentId = event.getComponentId();
+        int separator = componentId.indexOf(COMPONENT_ID_SEPARATOR);
+        String prefix = separator < 0 ? componentId : componentId.substring(0, separator);
+        Optional.ofNullable(componentMap.get(prefix))
+                .ifPresentOrElse(
+                        listener -> listener.onEvent(event),
+                        () -> log.info("No handler for component {}", componentId)
+                );
+    }
+
+}
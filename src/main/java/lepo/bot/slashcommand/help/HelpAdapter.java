@@ -1,5 +1,6 @@
 package lepo.bot.slashcommand.help;
 
+import lepo.bot.scheduler.DeferredTaskService;
 import lombok.extern.slf4j.Slf4j;
 import net.dv8tion.jda.api.events.interaction.command.SlashCommandInteractionEvent;
 import net.dv8tion.jda.api.hooks.ListenerAdapter;
@@ -8,8 +9,6 @@ import net.dv8tion.jda.internal.interactions.CommandDataImpl;
 import org.springframework.stereotype.Component;
 
 import java.util.Map;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
@@ -21,9 +20,11 @@ import static lepo.bot.slashcommand.help.HelpCommand.HELP_COMMAND;
 public abstract class HelpAdapter extends ListenerAdapter {
 
     private final Map<String, String> helpCommands;
+    private final DeferredTaskService deferredTaskService;
 
-    public HelpAdapter(Map<String, String> helpCommands) {
+    public HelpAdapter(Map<String, String> helpCommands, DeferredTaskService deferredTaskService) {
         this.helpCommands = helpCommands;
+        this.deferredTaskService = deferredTaskService;
     }
 
     public SlashCommandData help(String commandName, String description) {
@@ -41,10 +42,7 @@ public abstract class HelpAdapter extends ListenerAdapter {
                     .collect(Collectors.joining());
             event.reply(helpString)
                     .setEphemeral(true)
-                    .queue(interactionHook -> {
-                        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
-                        scheduler.schedule(() -> interactionHook.deleteOriginal().queue(), 1, TimeUnit.MINUTES);
-                    });
+                    .queue(deferredTaskService.deleteOriginalAfter(1, TimeUnit.MINUTES));
         }
     }
 
@@ -1,6 +1,7 @@
 package lepo.bot.slashcommand.help;
 
 
+import lepo.bot.scheduler.DeferredTaskService;
 import lepo.bot.slashcommand.Command;
 import lombok.extern.slf4j.Slf4j;
 import net.dv8tion.jda.api.events.interaction.command.SlashCommandInteractionEvent;
@@ -14,14 +15,14 @@ public class HelpCommand extends HelpAdapter implements Command {
     public static final String HELP_COMMAND = "help";
     public static final String HELP_DESCRIPTION = "Lista dei comandi disponibili";
 
-    public HelpCommand(Map<String, String> helpCommands) {
-        super(helpCommands);
+    public HelpCommand(Map<String, String> helpCommands, DeferredTaskService deferredTaskService) {
+        super(helpCommands, deferredTaskService);
     }
 
     @Override
     public void execute(SlashCommandInteractionEvent event) {
         log.info("{} starting SlashCommandInteractionEvent {}", getUserName(event), HELP_COMMAND);
-        this.help(HELP_COMMAND, HELP_DESCRIPTION);
+        this.onSlashCommandInteraction(event);
     }
 
     protected String getUserName(SlashCommandInteractionEvent event) {
@@ -0,0 +1,156 @@
+package lepo.bot.slashcommand.play.autocomplete;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.IntStream;
+
+/**
+ * Read only search index over the names offered by the /audio autocomplete, built once per catalog.
+ *
+ * <p>Names are lowercased ahead of time and sorted, so prefix matches are the contiguous range found
+ * by two binary searches (the same walk a trie would do, without one object per node).
+ * Substring matches use a posting list per n-gram of one to three characters: short inputs are
+ * answered directly by their own posting list, longer inputs only verify the names of the rarest
+ * trigram they contain. Both walks stop as soon as the requested number of results is reached.</p>
+ */
+public final class AutocompleteIndex {
+
+    private static final int MAX_GRAM = 3;
+
+    private final String[] names;
+    private final String[] lowerNames;
+    private final Map<String, int[]> postings;
+
+    public AutocompleteIndex(List<String> names) {
+        Integer[] order = IntStream.range(0, names.size()).boxed().toArray(Integer[]::new);
+        Arrays.sort(order, Comparator.comparing(i -> names.get(i).toLowerCase()));
+        this.names = new String[order.length];
+        this.lowerNames = new String[order.length];
+        for (int i = 0; i < order.length; i++) {
+            this.names[i] = names.get(order[i]);
+            this.lowerNames[i] = this.names[i].toLowerCase();
+        }
+        this.postings = buildPostings(lowerNames);
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    /**
+     * @param userInput what the user typed so far, in any case
+     * @param limit     maximum number of names to return
+     * @return prefix matches in alphabetical order followed by the other substring matches,
+     * or a random sample of the library when the input is empty
+     */
+    public List<String> search(String userInput, int limit) {
+        String query = userInput == null ? "" : userInput.toLowerCase();
+        if (query.isEmpty()) {
+            return randomSample(limit);
+        }
+        Set<Integer> matches = new LinkedHashSet<>();
+        collectPrefixMatches(query, limit, matches);
+        if (matches.size() < limit) {
+            collectSubstringMatches(query, limit, matches);
+        }
+        List<String> result = new ArrayList<>(matches.size());
+        matches.forEach(i -> result.add(names[i]));
+        return result;
+    }
+
+    private void collectPrefixMatches(String query, int limit, Set<Integer> matches) {
+        int from = lowerBound(query);
+        for (int i = from; i < lowerNames.length && matches.size() < limit && lowerNames[i].startsWith(query); i++) {
+            matches.add(i);
+        }
+    }
+
+    private void collectSubstringMatches(String query, int limit, Set<Integer> matches) {
+        if (query.length() <= MAX_GRAM) {
+            for (int i : postings.getOrDefault(query, new int[0])) {
+                if (matches.size() >= limit) {
+                    return;
+                }
+                matches.add(i);
+            }
+            return;
+        }
+        int[] candidates = rarestTrigramPostings(query);
+        for (int i : candidates) {
+            if (matches.size() >= limit) {
+                return;
+            }
+            if (lowerNames[i].contains(query)) {
+                matches.add(i);
+            }
+        }
+    }
+
+    private int[] rarestTrigramPostings(String query) {
+        int[] rarest = null;
+        for (int start = 0; start + MAX_GRAM <= query.length(); start++) {
+            int[] posting = postings.get(query.substring(start, start + MAX_GRAM));
+            if (posting == null) {
+                return new int[0];
+            }
+            if (rarest == null || posting.length < rarest.length) {
+                rarest = posting;
+            }
+        }
+        return rarest;
+    }
+
+    private int lowerBound(String query) {
+        int low = 0;
+        int high = lowerNames.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (lowerNames[mid].compareTo(query) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private List<String> randomSample(int limit) {
+        int sampleSize = Math.min(limit, names.length);
+        Set<Integer> picked = new LinkedHashSet<>();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (picked.size() < sampleSize) {
+            picked.add(random.nextInt(names.length));
+        }
+        List<String> result = new ArrayList<>(sampleSize);
+        picked.forEach(i -> result.add(names[i]));
+        return Collections.unmodifiableList(result);
+    }
+
+    private static Map<String, int[]> buildPostings(String[] lowerNames) {
+        Map<String, List<Integer>> lists = new HashMap<>();
+        for (int i = 0; i < lowerNames.length; i++) {
+            String name = lowerNames[i];
+            Set<String> grams = new LinkedHashSet<>();
+            for (int length = 1; length <= MAX_GRAM; length++) {
+                for (int start = 0; start + length <= name.length(); start++) {
+                    grams.add(name.substring(start, start + length));
+                }
+            }
+            for (String gram : grams) {
+                lists.computeIfAbsent(gram, key -> new ArrayList<>()).add(i);
+            }
+        }
+        Map<String, int[]> postings = new HashMap<>(lists.size() * 2);
+        lists.forEach((gram, ids) -> postings.put(gram, ids.stream().mapToInt(Integer::intValue).toArray()));
+        return postings;
+    }
+
+}
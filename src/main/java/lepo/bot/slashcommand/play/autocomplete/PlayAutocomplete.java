@@ -1,7 +1,10 @@
 package lepo.bot.slashcommand.play.autocomplete;
 
-import lepo.bot.audio.AudioPlayerLoadResultHandler;
-import lepo.bot.audio.AudioPlayerSendHandler;
+import lepo.bot.audio.AudioCatalog;
+import lepo.bot.audio.AudioCatalogListener;
+import lepo.bot.audio.AudioClip;
+import lepo.bot.audio.AudioPlayerRegistry;
+import lepo.bot.cache.LruCache;
 import lombok.extern.slf4j.Slf4j;
 import net.dv8tion.jda.api.events.interaction.command.CommandAutoCompleteInteractionEvent;
 import net.dv8tion.jda.api.events.interaction.command.SlashCommandInteractionEvent;
@@ -11,31 +14,63 @@ import net.dv8tion.jda.api.interactions.commands.Command;
 import net.dv8tion.jda.api.interactions.commands.OptionType;
 import net.dv8tion.jda.api.interactions.commands.build.SlashCommandData;
 import net.dv8tion.jda.internal.interactions.CommandDataImpl;
-import org.jetbrains.annotations.NotNull;
 
-import java.io.File;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
+import static lepo.bot.audio.AudioCategory.PLAY;
 import static lepo.bot.slashcommand.play.autocomplete.PlayAutocompleteCommand.PLAY_AUDIO;
 
 @Slf4j
-public abstract class PlayAutocomplete extends ListenerAdapter {
-
-    private final Map<String, List<Command.Choice>> autocompleteCache = new HashMap<>();
-    private static final int CACHE_SIZE_LIMIT = 150;
-    protected final AudioPlayerLoadResultHandler audioPlayerLoadResultHandler;
-    protected final AudioPlayerSendHandler audioPlayerSendHandler;
-    protected final List<File> playAudioFilesList;
-    private final List<String> audioFileNames;
+public abstract class PlayAutocomplete extends ListenerAdapter implements AudioCatalogListener {
+
+    private static final int CACHE_SIZE_LIMIT = 500;
+    private static final long CACHE_TTL_MINUTES = 30;
+    private final LruCache<String, List<Command.Choice>> autocompleteCache =
+            new LruCache<>("autocomplete", CACHE_SIZE_LIMIT, CACHE_TTL_MINUTES, TimeUnit.MINUTES);
+    protected final AudioPlayerRegistry audioPlayerRegistry;
+    protected final AudioCatalog audioCatalog;
+    private volatile AutocompleteIndex autocompleteIndex;
+    private volatile List<AudioClip> indexedClips;
+    private static final int MAX_CHOICES = 25;
     private static final String OPTION_NAME = "nome";
     private static final String OPTION_DESCRIPTION = "Audio da riprodurre (visualizzati 25 audio casuali ma e' possibile riprodurli tutti)";
 
-    protected PlayAutocomplete(AudioPlayerLoadResultHandler audioPlayerLoadResultHandler, AudioPlayerSendHandler audioPlayerSendHandler, List<File> playAudioFilesList) {
-        this.audioPlayerLoadResultHandler = audioPlayerLoadResultHandler;
-        this.audioPlayerSendHandler = audioPlayerSendHandler;
-        this.playAudioFilesList = playAudioFilesList;
-        audioFileNames = getAudioFileNames(playAudioFilesList);
+    protected PlayAutocomplete(AudioPlayerRegistry audioPlayerRegistry, AudioCatalog audioCatalog) {
+        this.audioPlayerRegistry = audioPlayerRegistry;
+        this.audioCatalog = audioCatalog;
+        indexedClips = audioCatalog.getClips(PLAY);
+        autocompleteIndex = buildIndex(indexedClips);
+    }
+
+    /**
+     * Rebuilds the index and drops every cached answer only when the play clips changed;
+     * changes to the other categories leave both untouched.
+     */
+    @Override
+    public void onCatalogChanged(AudioCatalog audioCatalog) {
+        List<AudioClip> clips = audioCatalog.getClips(PLAY);
+        if (clips == indexedClips) {
+            return;
+        }
+        AutocompleteIndex rebuilt = buildIndex(clips);
+        indexedClips = clips;
+        synchronized (autocompleteCache) {
+            autocompleteIndex = rebuilt;
+            autocompleteCache.invalidateAll();
+        }
+        log.info("Autocomplete index rebuilt with {} names", autocompleteIndex.size());
+    }
+
+    public void logCacheMetrics() {
+        autocompleteCache.logMetrics();
+    }
+
+    private static AutocompleteIndex buildIndex(List<AudioClip> clips) {
+        return new AutocompleteIndex(clips.stream()
+                .map(AudioClip::getDisplayName)
+                .collect(Collectors.toList()));
     }
 
     public SlashCommandData playAuto(String commandName, String description) {
@@ -52,10 +87,9 @@ public abstract class PlayAutocomplete extends ListenerAdapter {
      *
      * <p>This method is triggered when a command auto-complete interaction event occurs. It checks if the event
      * name matches {@code PLAY_AUDIO} and the focused option's name matches {@code OPTION_NAME}. If both conditions
-     * are met, it filters the list of audio file names based on the user's input, creating a list of choices that
-     * either start with the input (ignoring case) or contain the input as a substring (also ignoring case).
-     * It then shuffles the filtered list randomly and limits the result to 25 choices, which are then sent back
-     * as the auto-complete suggestions.</p>
+     * are met, it asks the {@link AutocompleteIndex} for up to 25 names that start with the user's input, followed
+     * by names that contain it (ignoring case). Answers are kept in a bounded LRU cache with a time to live,
+     * cleared when the catalog changes; an empty input is answered with 25 random names and is never cached.</p>
      *
      * @param event the command auto-complete interaction event
      */
@@ -64,54 +98,39 @@ public abstract class PlayAutocomplete extends ListenerAdapter {
         if (event.getName().equals(PLAY_AUDIO) && event.getFocusedOption().getName().equals(OPTION_NAME)) {
             String userInput = event.getFocusedOption().getValue().toLowerCase();
 
-            List<Command.Choice> cachedOptions = autocompleteCache.get(userInput);
-            if (cachedOptions != null) {
-                log.info("Retrieved from cache: {}", userInput);
-                List<Command.Choice> optionsLimited = cachedOptions.stream()
-                        .limit(25)
-                        .collect(Collectors.toList());
-                event.replyChoices(optionsLimited).queue();
+            AutocompleteIndex index = autocompleteIndex;
+            if (userInput.isEmpty()) {
+                event.replyChoices(calculateAutocompleteOptions(index, userInput)).queue();
                 return;
             }
 
-            log.info("Cache miss, calculating options for: {}", userInput);
-            List<Command.Choice> options = calculateAutocompleteOptions(userInput);
-            Collections.shuffle(options, new Random());
-            List<Command.Choice> optionsLimited = options.stream()
-                    .limit(25)
-                    .collect(Collectors.toList());
+            List<Command.Choice> options = autocompleteCache.get(userInput).orElseGet(() -> {
+                log.info("Cache miss, calculating options for: {}", userInput);
+                List<Command.Choice> calculated = calculateAutocompleteOptions(index, userInput);
+                cacheIfCurrent(index, userInput, calculated);
+                return calculated;
+            });
+            event.replyChoices(options).queue();
+        }
+    }
 
-            if (autocompleteCache.size() < CACHE_SIZE_LIMIT) {
-                autocompleteCache.put(userInput, optionsLimited);
+    /**
+     * Caches an answer only if the index it was computed from is still the current one, so an answer computed
+     * while the catalog changed cannot outlive the {@link LruCache#invalidateAll()} of the new index.
+     * The cache is its own lock, the one {@link #onCatalogChanged(AudioCatalog)} swaps the index under.
+     */
+    private void cacheIfCurrent(AutocompleteIndex index, String userInput, List<Command.Choice> options) {
+        synchronized (autocompleteCache) {
+            if (index == autocompleteIndex) {
+                autocompleteCache.put(userInput, options);
             }
-
-            event.replyChoices(optionsLimited).queue();
         }
     }
 
-    private List<Command.Choice> calculateAutocompleteOptions(String userInput) {
-        return audioFileNames.stream()
-                .filter(word -> startsWithIgnoreCase(word, userInput) || word.toLowerCase().contains(userInput))
+    private static List<Command.Choice> calculateAutocompleteOptions(AutocompleteIndex index, String userInput) {
+        return index.search(userInput, MAX_CHOICES).stream()
                 .map(word -> new Command.Choice(word, word))
-                .collect(Collectors.toList());
-    }
-
-    private boolean startsWithIgnoreCase(String str, String prefix) {
-        return Optional.ofNullable(str)
-                .filter(s -> prefix != null)
-                .filter(s -> s.length() >= prefix.length())
-                .map(s -> s.regionMatches(true, 0, prefix, 0, prefix.length()))
-                .orElse(false);
-    }
-
-    private @NotNull List<String> getAudioFileNames(List<File> playAudioFilesList) {
-        return playAudioFilesList.stream()
-                .map(file -> getFileNameWithoutExtension(file.getName()))
-                .collect(Collectors.toList());
-    }
-
-    protected String getFileNameWithoutExtension(String input) {
-        return input.substring(0, input.indexOf('.'));
+                .collect(Collectors.toUnmodifiableList());
     }
 
     protected String getUserName(ButtonInteractionEvent event) {
@@ -1,9 +1,12 @@
 package lepo.bot.slashcommand.play.autocomplete;
 
 
-import lepo.bot.audio.AudioPlayerLoadResultHandler;
+import lepo.bot.audio.AudioCatalog;
+import lepo.bot.audio.AudioPlayerRegistry;
 import lepo.bot.audio.AudioPlayerSendHandler;
+import lepo.bot.audio.TrackPriority;
 import lepo.bot.filemanager.FileService;
+import lepo.bot.scheduler.DeferredTaskService;
 import lepo.bot.slashcommand.Command;
 import lombok.extern.slf4j.Slf4j;
 import net.dv8tion.jda.api.entities.Guild;
@@ -13,17 +16,16 @@ import net.dv8tion.jda.api.events.interaction.command.SlashCommandInteractionEve
 import net.dv8tion.jda.api.interactions.InteractionHook;
 import net.dv8tion.jda.api.interactions.commands.OptionMapping;
 
-import java.io.File;
-import java.util.List;
+import java.util.Objects;
 import java.util.Optional;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
 
+import static lepo.bot.audio.AudioCategory.PLAY;
+
 /**
- * Play an audio from audioFilesList
+ * Play an audio from the {@link AudioCatalog}
  */
 @Slf4j
 public class PlayAutocompleteCommand extends PlayAutocomplete implements Command {
@@ -31,10 +33,12 @@ public class PlayAutocompleteCommand extends PlayAutocomplete implements Command
     public static final String PLAY_AUDIO = "audio";
     public static final String PLAY_AUDIO_DESCRIPTION = "Riproduci un audio";
     private final FileService fileService;
+    private final DeferredTaskService deferredTaskService;
 
-    public PlayAutocompleteCommand(AudioPlayerLoadResultHandler audioPlayerLoadResultHandler, AudioPlayerSendHandler audioPlayerSendHandler, List<File> audioFilesList, FileService fileService) {
-        super(audioPlayerLoadResultHandler, audioPlayerSendHandler, audioFilesList);
+    public PlayAutocompleteCommand(AudioPlayerRegistry audioPlayerRegistry, AudioCatalog audioCatalog, FileService fileService, DeferredTaskService deferredTaskService) {
+        super(audioPlayerRegistry, audioCatalog);
         this.fileService = fileService;
+        this.deferredTaskService = deferredTaskService;
     }
 
     /**
@@ -77,24 +81,17 @@ public class PlayAutocompleteCommand extends PlayAutocomplete implements Command
     }
 
     private boolean doesFileExist(String audioRequest) {
-        return playAudioFilesList.stream()
-                .anyMatch(file -> getFileNameWithoutExtension(file.getName()).equals(audioRequest));
+        return audioCatalog.find(PLAY, audioRequest).isPresent();
     }
 
     private boolean isFileAllowedToPlay(SlashCommandInteractionEvent event) {
-        return fileService.notContainedInFile(fileService.getChannelNameWithoutEmoji(event.getChannel().getName()));
+        return !fileService.isExcluded(event.getChannel().getIdLong());
     }
 
     private void playAudio(String audioRequest, SlashCommandInteractionEvent event) {
         log.info("Playing audio request: {}", audioRequest);
-        String audioFilePath = playAudioFilesList.stream()
-                .filter(file -> getFileNameWithoutExtension(file.getName()).equals(audioRequest))
-                .map(File::getAbsolutePath)
-                .findFirst()
-                .orElse("AUDIO_NOT_FOUND");
-        audioPlayerSendHandler.getTrackScheduler().nextTrack();
-        audioPlayerSendHandler.getAudioPlayerManager().loadItem(audioFilePath, audioPlayerLoadResultHandler);
-        audioPlayerSendHandler.getTrackScheduler().nextTrack();
+        AudioPlayerSendHandler audioPlayerSendHandler = audioPlayerRegistry.get(Objects.requireNonNull(event.getGuild()));
+        audioCatalog.find(PLAY, audioRequest).ifPresent(clip -> audioPlayerSendHandler.play(clip, TrackPriority.CLIP));
         event.deferReply().setEphemeral(true).setContent("\uD83D\uDD0A " + audioRequest)
                 .queue(setInteractionTimeout());
     }
@@ -113,10 +110,7 @@ public class PlayAutocompleteCommand extends PlayAutocomplete implements Command
     }
 
     private Consumer<InteractionHook> setInteractionTimeout() {
-        return interactionHook -> {
-            ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
-            scheduler.schedule(() -> interactionHook.deleteOriginal().queue(), 6, TimeUnit.SECONDS);
-        };
+        return deferredTaskService.deleteOriginalAfter(6, TimeUnit.SECONDS);
     }
 
     private boolean joinVoiceChannelIfNotConnected(SlashCommandInteractionEvent event) {
@@ -127,10 +121,9 @@ public class PlayAutocompleteCommand extends PlayAutocomplete implements Command
                         Optional.ofNullable(event.getMember())
                                 .map(Member::getVoiceState)
                                 .map(GuildVoiceState::getChannel)
-                                .filter(channel -> fileService.notContainedInFile(fileService.getChannelNameWithoutEmoji(channel.getName())))
+                                .filter(channel -> !fileService.isExcluded(channel.getIdLong()))
                                 .ifPresent(channel -> {
-                                    audioManager.openAudioConnection(channel);
-                                    audioManager.setSendingHandler(audioPlayerSendHandler);
+                                    audioPlayerRegistry.connect(audioManager, channel);
                                     joined.set(true);
                                 })
                 );
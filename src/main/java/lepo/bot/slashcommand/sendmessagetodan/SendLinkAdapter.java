@@ -1,5 +1,6 @@
 package lepo.bot.slashcommand.sendmessagetodan;
 
+import lepo.bot.scheduler.DeferredTaskService;
 import lombok.extern.slf4j.Slf4j;
 import net.dv8tion.jda.api.entities.Member;
 import net.dv8tion.jda.api.entities.User;
@@ -14,8 +15,6 @@ import net.dv8tion.jda.internal.interactions.CommandDataImpl;
 import org.springframework.stereotype.Component;
 
 import java.util.Optional;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
@@ -28,10 +27,12 @@ import static lepo.bot.slashcommand.sendmessagetodan.SendLinkCommand.SEND_LINK_D
 public abstract class SendLinkAdapter extends ListenerAdapter {
 
     private final String adminId;
+    private final DeferredTaskService deferredTaskService;
     private static final String LINK = "link";
 
-    protected SendLinkAdapter(String adminId) {
+    protected SendLinkAdapter(String adminId, DeferredTaskService deferredTaskService) {
         this.adminId = adminId;
+        this.deferredTaskService = deferredTaskService;
     }
 
     public SlashCommandData sendLink(String commandName, String description) {
@@ -75,10 +76,7 @@ public abstract class SendLinkAdapter extends ListenerAdapter {
     }
 
     private Consumer<InteractionHook> setInteractionTimeout() {
-        return interactionHook -> {
-            ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
-            scheduler.schedule(() -> interactionHook.deleteOriginal().queue(), 3, TimeUnit.SECONDS);
-        };
+        return deferredTaskService.deleteOriginalAfter(3, TimeUnit.SECONDS);
     }
 
 }
\ No newline at end of file
@@ -1,6 +1,7 @@
 package lepo.bot.slashcommand.sendmessagetodan;
 
 
+import lepo.bot.scheduler.DeferredTaskService;
 import lepo.bot.slashcommand.Command;
 import lombok.extern.slf4j.Slf4j;
 import net.dv8tion.jda.api.events.interaction.command.SlashCommandInteractionEvent;
@@ -13,13 +14,14 @@ public class SendLinkCommand extends SendLinkAdapter implements Command {
     public static final String SEND_LINK_COMMAND = "invia";
     public static final String SEND_LINK_DESCRIPTION = "Proponi un audio inviando un link";
 
-    public SendLinkCommand(String adminId) {
-        super(adminId);
+    public SendLinkCommand(String adminId, DeferredTaskService deferredTaskService) {
+        super(adminId, deferredTaskService);
     }
 
     @Override
     public void execute(SlashCommandInteractionEvent event) {
         log.info("{} starting SlashCommandInteractionEvent {}", getUserName(event), SEND_LINK_COMMAND);
+        this.onSlashCommandInteraction(event);
     }
 
     protected String getUserName(SlashCommandInteractionEvent event) {
@@ -1,8 +1,9 @@
 package lepo.bot.slashcommand.tts;
 
-import lepo.bot.audio.AudioPlayerLoadResultHandler;
-import lepo.bot.audio.AudioPlayerSendHandler;
+import lepo.bot.audio.AudioPlayerRegistry;
+import lepo.bot.audio.TrackPriority;
 import lepo.bot.filemanager.FileService;
+import lepo.bot.scheduler.DeferredTaskService;
 import lombok.extern.slf4j.Slf4j;
 import net.dv8tion.jda.api.entities.Guild;
 import net.dv8tion.jda.api.entities.GuildVoiceState;
@@ -19,9 +20,8 @@ import org.springframework.stereotype.Component;
 
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.util.Objects;
 import java.util.Optional;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
@@ -34,15 +34,15 @@ import static lepo.bot.slashcommand.tts.TtsCommand.TTS_DESCRIPTION;
 @Component
 public abstract class TtsAdapter extends ListenerAdapter {
 
-    private final AudioPlayerSendHandler audioPlayerSendHandler;
-    private final AudioPlayerLoadResultHandler audioPlayerLoadResultHandler;
+    private final AudioPlayerRegistry audioPlayerRegistry;
     private final FileService fileService;
+    private final DeferredTaskService deferredTaskService;
     private static final String TESTO = "testo";
 
-    protected TtsAdapter(AudioPlayerSendHandler audioPlayerSendHandler, AudioPlayerLoadResultHandler audioPlayerLoadResultHandler, FileService fileService) {
-        this.audioPlayerSendHandler = audioPlayerSendHandler;
-        this.audioPlayerLoadResultHandler = audioPlayerLoadResultHandler;
+    protected TtsAdapter(AudioPlayerRegistry audioPlayerRegistry, FileService fileService, DeferredTaskService deferredTaskService) {
+        this.audioPlayerRegistry = audioPlayerRegistry;
         this.fileService = fileService;
+        this.deferredTaskService = deferredTaskService;
     }
 
     public SlashCommandData tts(String commandName, String description) {
@@ -66,17 +66,16 @@ public abstract class TtsAdapter extends ListenerAdapter {
             try {
                 String encodedString = encodeURL(inputMessage);
                 log.info("Encoded input message: {}", encodedString);
+                String ttsUrl = String.format("ftts://%s", encodedString);
+                if (!audioPlayerRegistry.get(Objects.requireNonNull(event.getGuild())).loadItem(ttsUrl, TrackPriority.TTS)) {
+                    event.reply("Troppi messaggi, riprova tra un minuto")
+                            .setEphemeral(true)
+                            .queue(setInteractionTimeout());
+                    return;
+                }
                 event.reply("Messaggio elaborato correttamente")
                         .setEphemeral(true)
-                        .queue(interactionHook -> {
-                            ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
-                            scheduler.schedule(() -> {
-                                String ttsUrl = String.format("ftts://%s", encodedString);
-                                audioPlayerSendHandler.getAudioPlayerManager()
-                                        .loadItem(ttsUrl, audioPlayerLoadResultHandler);
-                            }, 0, TimeUnit.MILLISECONDS);
-                            scheduler.schedule(() -> interactionHook.deleteOriginal().queue(), 3, TimeUnit.SECONDS);
-                        });
+                        .queue(interactionHook -> deferredTaskService.schedule(() -> interactionHook.deleteOriginal().queue(), 3, TimeUnit.SECONDS));
             } catch (Exception e) {
                 event.reply("Prova di nuovo più tardi")
                         .setEphemeral(true)
@@ -97,10 +96,7 @@ public abstract class TtsAdapter extends ListenerAdapter {
     }
 
     private Consumer<InteractionHook> setInteractionTimeout() {
-        return interactionHook -> {
-            ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
-            scheduler.schedule(() -> interactionHook.deleteOriginal().queue(), 3, TimeUnit.SECONDS);
-        };
+        return deferredTaskService.deleteOriginalAfter(3, TimeUnit.SECONDS);
     }
 
     private boolean joinVoiceChannelIfNotConnected(SlashCommandInteractionEvent event) {
@@ -111,10 +107,9 @@ public abstract class TtsAdapter extends ListenerAdapter {
                         Optional.ofNullable(event.getMember())
                                 .map(Member::getVoiceState)
                                 .map(GuildVoiceState::getChannel)
-                                .filter(channel -> fileService.notContainedInFile(fileService.getChannelNameWithoutEmoji(channel.getName())))
+                                .filter(channel -> !fileService.isExcluded(channel.getIdLong()))
                                 .ifPresent(channel -> {
-                                    audioManager.openAudioConnection(channel);
-                                    audioManager.setSendingHandler(audioPlayerSendHandler);
+                                    audioPlayerRegistry.connect(audioManager, channel);
                                     joined.set(true);
                                 })
                 );
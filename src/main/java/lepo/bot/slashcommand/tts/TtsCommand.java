@@ -1,9 +1,9 @@
 package lepo.bot.slashcommand.tts;
 
 
-import lepo.bot.audio.AudioPlayerLoadResultHandler;
-import lepo.bot.audio.AudioPlayerSendHandler;
+import lepo.bot.audio.AudioPlayerRegistry;
 import lepo.bot.filemanager.FileService;
+import lepo.bot.scheduler.DeferredTaskService;
 import lepo.bot.slashcommand.Command;
 import lombok.extern.slf4j.Slf4j;
 import net.dv8tion.jda.api.events.interaction.command.SlashCommandInteractionEvent;
@@ -16,13 +16,14 @@ public class TtsCommand extends TtsAdapter implements Command {
     public static final String TTS_COMMAND = "tts";
     public static final String TTS_DESCRIPTION = "Text-to-Speech";
 
-    public TtsCommand(AudioPlayerSendHandler audioPlayerSendHandler, AudioPlayerLoadResultHandler audioPlayerLoadResultHandler, FileService fileService) {
-        super(audioPlayerSendHandler, audioPlayerLoadResultHandler, fileService);
+    public TtsCommand(AudioPlayerRegistry audioPlayerRegistry, FileService fileService, DeferredTaskService deferredTaskService) {
+        super(audioPlayerRegistry, fileService, deferredTaskService);
     }
 
     @Override
     public void execute(SlashCommandInteractionEvent event) {
         log.info("{} starting SlashCommandInteractionEvent {}", getUserName(event), TTS_COMMAND);
+        this.onSlashCommandInteraction(event);
     }
 
     protected String getUserName(SlashCommandInteractionEvent event) {
@@ -2,6 +2,7 @@ package lepo.bot.slashcommand.voicechannelmanager;
 
 
 import lepo.bot.filemanager.FileService;
+import lepo.bot.scheduler.DeferredTaskService;
 import lepo.bot.slashcommand.Command;
 import lombok.extern.slf4j.Slf4j;
 import net.dv8tion.jda.api.events.interaction.command.SlashCommandInteractionEvent;
@@ -16,13 +17,14 @@ public class VoiceChannelManagerCommand extends VoiceChannelManagerListenerAdapt
     public static final String VOICE_CHANNEL_MANAGER_DESCRIPTION = "Gestore canali vocali (solo Admin)";
     public static final String VOICE_CHANNEL_MANAGER_HELP_DESCRIPTION = "Decidi in quali canali il bot puo' collegarsi, non si colleghera' nei canali contrassegnati con " + RED_SIGN;
 
-    public VoiceChannelManagerCommand(FileService fileService, String adminId, String powerUserId) {
-        super(fileService, adminId, powerUserId);
+    public VoiceChannelManagerCommand(FileService fileService, DeferredTaskService deferredTaskService, String adminId, String powerUserId) {
+        super(fileService, deferredTaskService, adminId, powerUserId);
     }
 
     @Override
     public void execute(SlashCommandInteractionEvent event) {
         log.info("{} starting SlashCommandInteractionEvent {}", getUserName(event), VOICE_CHANNEL_MANAGER_COMMAND);
+        this.onSlashCommandInteraction(event);
     }
 
     protected String getUserName(SlashCommandInteractionEvent event) {
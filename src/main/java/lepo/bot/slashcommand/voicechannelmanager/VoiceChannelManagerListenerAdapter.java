@@ -1,6 +1,8 @@
 package lepo.bot.slashcommand.voicechannelmanager;
 
+import lepo.bot.filemanager.ChannelNameNormalizer;
 import lepo.bot.filemanager.FileService;
+import lepo.bot.scheduler.DeferredTaskService;
 import lombok.extern.slf4j.Slf4j;
 import net.dv8tion.jda.api.Permission;
 import net.dv8tion.jda.api.entities.Guild;
@@ -22,8 +24,6 @@ import org.springframework.stereotype.Component;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
@@ -39,11 +39,13 @@ public abstract class VoiceChannelManagerListenerAdapter extends ListenerAdapter
     private static final String GREEN_SIGN = "\uD83D\uDFE2";
     private final String adminId;
     private final String powerUserId;
-    private static final String SELECT_VOICE_CHANNEL = "select-voice-channel";
+    public static final String SELECT_VOICE_CHANNEL = "select-voice-channel";
     private final FileService fileService;
+    private final DeferredTaskService deferredTaskService;
 
-    protected VoiceChannelManagerListenerAdapter(FileService fileService, String adminId, String powerUserId) {
+    protected VoiceChannelManagerListenerAdapter(FileService fileService, DeferredTaskService deferredTaskService, String adminId, String powerUserId) {
         this.fileService = fileService;
+        this.deferredTaskService = deferredTaskService;
         this.powerUserId = powerUserId;
         this.adminId = adminId;
     }
@@ -58,15 +60,12 @@ public abstract class VoiceChannelManagerListenerAdapter extends ListenerAdapter
         boolean isAcknowledged = false;
         boolean isAdmin = event.getMember().hasPermission(Permission.ADMINISTRATOR);
         List<String> allowedUserId = List.of(powerUserId, adminId);
-        Consumer<InteractionHook> interactionHookConsumer = interactionHook -> {
-            ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
-            scheduler.schedule(() -> interactionHook.deleteOriginal().queue(), 5, TimeUnit.MINUTES);
-        };
+        Consumer<InteractionHook> interactionHookConsumer = deferredTaskService.deleteOriginalAfter(5, TimeUnit.MINUTES);
         boolean isVoiceChannelCommand = event.getName().equals(VOICE_CHANNEL_MANAGER_COMMAND);
         if (isVoiceChannelCommand && (allowedUserId.contains(event.getMember().getUser().getId()) || isAdmin)) {
             List<SelectOption> voiceChannels = Objects.requireNonNull(event.getGuild()).getVoiceChannels().stream()
                     .map(channel -> SelectOption.of(
-                                    addProhibitedEmojiIfNeeded(fileService.getChannelNameWithoutEmoji(channel.getName())), channel.getId())
+                                    addProhibitedEmojiIfNeeded(channel), channel.getId())
                             .withEmoji(getFirstEmojiInChannelName(channel.getName())))
                     .collect(Collectors.toList());
             event.reply("Lista canali audio")
@@ -91,18 +90,22 @@ public abstract class VoiceChannelManagerListenerAdapter extends ListenerAdapter
      */
     @Override
     public void onStringSelectInteraction(@NotNull StringSelectInteractionEvent event) {
-        String botName = Objects.requireNonNull(event.getGuild()).getSelfMember().getEffectiveName();
-        String channel = removeGreenEmoji(removeProhibitedEmoji(getSelectedVoiceChannelName(event)));
+        Guild guild = Objects.requireNonNull(event.getGuild());
+        String botName = guild.getSelfMember().getEffectiveName();
+        long channelId = getSelectedVoiceChannelId(event);
+        String channel = Optional.ofNullable(guild.getVoiceChannelById(channelId))
+                .map(voiceChannel -> fileService.getChannelNameWithoutEmoji(voiceChannel))
+                .orElse("channelNameNotFound");
         boolean isChannelRemoved = false;
-        if (fileService.notContainedInFile(channel)) {
-            fileService.writeToFilePath(channel);
-            conditionalDisconnect(event);
+        if (!fileService.isExcluded(channelId)) {
+            fileService.exclude(guild.getIdLong(), channelId);
+            conditionalDisconnect(event, channelId);
         } else {
             isChannelRemoved = true;
-            fileService.removeFromFile(channel);
+            fileService.include(guild.getIdLong(), channelId);
         }
-        List<SelectOption> defaultChannelsPosition = Objects.requireNonNull(event.getGuild()).getVoiceChannels().stream()
-                .map(c -> SelectOption.of(addProhibitedEmojiIfNeeded(fileService.getChannelNameWithoutEmoji(c.getName())), c.getId())
+        List<SelectOption> defaultChannelsPosition = guild.getVoiceChannels().stream()
+                .map(c -> SelectOption.of(addProhibitedEmojiIfNeeded(c), c.getId())
                         .withEmoji(getFirstEmojiInChannelName(c.getName())))
                 .collect(Collectors.toList());
         String entra = String.format("%s %s ora potra' entrare nel canale %s", GREEN_SIGN, botName, channel);
@@ -115,37 +118,27 @@ public abstract class VoiceChannelManagerListenerAdapter extends ListenerAdapter
                 .queue();
     }
 
-    private void conditionalDisconnect(StringSelectInteractionEvent event) {
-        String channelWhereBotIsConnected = Optional.ofNullable(event.getGuild())
-                .map(guild -> guild.getAudioManager().getConnectedChannel())
-                .filter(VoiceChannel.class::isInstance)
-                .map(channel -> fileService.getChannelNameWithoutEmoji(channel.getName()))
-                .orElse("Bot is not connected to any voice channel.");
-        String selection = fileService.getChannelNameWithoutEmoji(getSelectedVoiceChannelName(event));
-        Optional.of(selection)
-                .filter(sel -> sel.contains(channelWhereBotIsConnected))
-                .map(sel -> event.getGuild())
+    private void conditionalDisconnect(StringSelectInteractionEvent event, long channelId) {
+        Optional.ofNullable(event.getGuild())
                 .map(Guild::getAudioManager)
+                .filter(audioManager -> Objects.nonNull(audioManager.getConnectedChannel())
+                        && audioManager.getConnectedChannel().getIdLong() == channelId)
                 .ifPresentOrElse(
                         AudioManager::closeAudioConnection,
                         () -> log.info("Do not disconnect")
                 );
     }
 
-    private String addProhibitedEmojiIfNeeded(String channelName) {
-        return !fileService.notContainedInFile(channelName) ? channelName + RED_SIGN : (channelName + GREEN_SIGN);
+    private String addProhibitedEmojiIfNeeded(VoiceChannel channel) {
+        String channelName = fileService.getChannelNameWithoutEmoji(channel);
+        return fileService.isExcluded(channel.getIdLong()) ? channelName + RED_SIGN : (channelName + GREEN_SIGN);
     }
 
-    private String removeGreenEmoji(String channelName) {
-        return channelName.replace(GREEN_SIGN, "");
-    }
-
-    private String removeProhibitedEmoji(String channelName) {
-        return channelName.replace(RED_SIGN, "");
-    }
-
-    private String getSelectedVoiceChannelName(StringSelectInteractionEvent event) {
-        return event.getSelectedOptions().stream().findFirst().map(SelectOption::getLabel).orElse("channelNameNotFound");
+    /**
+     * The option value is the channel ID, see {@link #onSlashCommandInteraction(SlashCommandInteractionEvent)}
+     */
+    private long getSelectedVoiceChannelId(StringSelectInteractionEvent event) {
+        return event.getValues().stream().findFirst().map(Long::parseLong).orElse(0L);
     }
 
     /**
@@ -156,9 +149,8 @@ public abstract class VoiceChannelManagerListenerAdapter extends ListenerAdapter
      */
     private UnicodeEmoji getFirstEmojiInChannelName(String input) {
         return input.codePoints()
-                .mapToObj(c -> new String(Character.toChars(c)))
-                .filter(fileService::isEmoji)
-                .map(Emoji::fromUnicode)
+                .filter(ChannelNameNormalizer::isEmoji)
+                .mapToObj(c -> Emoji.fromUnicode(new String(Character.toChars(c))))
                 .findFirst()
                 .orElse(Emoji.fromUnicode("\uD83C\uDFA4"));
     }
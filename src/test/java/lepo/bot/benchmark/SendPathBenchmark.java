@@ -0,0 +1,174 @@
+package lepo.bot.benchmark;
+
+import com.sedmelluq.discord.lavaplayer.track.playback.MutableAudioFrame;
+import com.sun.management.ThreadMXBean;
+import lepo.bot.audio.opus.OggOpusDemuxer;
+import lepo.bot.audio.opus.OpusFrames;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.function.Supplier;
+
+/**
+ * Measures copies and allocations per second of audio of the ways a 20 ms frame can reach JDA.
+ * Run it with an Ogg Opus clip as argument, or without arguments to use a synthetic clip:
+ * <pre>java -cp target/test-classes:target/classes:&lt;dependencies&gt; lepo.bot.benchmark.SendPathBenchmark [clip.opus] [seconds]</pre>
+ *
+ * <ul>
+ *     <li>direct buffer: the frame sits in a direct buffer, JDA needs an array so it must be copied into a new one</li>
+ *     <li>player frame buffer: lavaplayer stores the frame into the reused heap buffer of the send handler</li>
+ *     <li>packet view: a view of the pre-demuxed packet array is handed over as it is</li>
+ * </ul>
+ */
+public final class SendPathBenchmark {
+
+    private static final int FRAMES_PER_SECOND = 50;
+    private static final int SYNTHETIC_PACKET_SIZE = 120;
+    private static final byte CELT_FULLBAND_20_MS = (byte) 0xF8;
+
+    private SendPathBenchmark() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        byte[] ogg = args.length > 0 ? Files.readAllBytes(Path.of(args[0])) : syntheticClip(FRAMES_PER_SECOND * 4);
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 3600;
+        OpusFrames opusFrames = OggOpusDemuxer.demux(ByteBuffer.wrap(ogg))
+                .orElseThrow(() -> new IllegalArgumentException("The clip is not made of 20 ms single frame opus packets"));
+        long frames = (long) seconds * FRAMES_PER_SECOND;
+        System.out.printf("%d packets per clip, %d s of audio per run%n", opusFrames.size(), seconds);
+        for (int warmup = 0; warmup < 3; warmup++) {
+            directBuffer(opusFrames, frames);
+            playerFrameBuffer(opusFrames, frames);
+            packetView(opusFrames, frames);
+        }
+        report("direct buffer", seconds, directBuffer(opusFrames, frames));
+        report("player frame buffer", seconds, playerFrameBuffer(opusFrames, frames));
+        report("packet view", seconds, packetView(opusFrames, frames));
+    }
+
+    private static Result directBuffer(OpusFrames opusFrames, long frames) {
+        ByteBuffer direct = ByteBuffer.allocateDirect(2048);
+        return measure(() -> {
+            long copies = 0;
+            long checksum = 0;
+            OpusFrames.Cursor cursor = opusFrames.cursor();
+            for (long i = 0; i < frames; i++) {
+                cursor = rewindIfDone(opusFrames, cursor);
+                direct.clear();
+                direct.put(cursor.next()).flip();
+                byte[] jdaCopy = new byte[direct.remaining()];
+                direct.get(jdaCopy);
+                copies += 2;
+                checksum += jdaCopy[0];
+            }
+            return new long[]{copies, checksum};
+        });
+    }
+
+    private static Result playerFrameBuffer(OpusFrames opusFrames, long frames) {
+        ByteBuffer buffer = ByteBuffer.allocate(2048);
+        MutableAudioFrame frame = new MutableAudioFrame();
+        frame.setBuffer(buffer);
+        byte[] frameBuffer = new byte[2048];
+        return measure(() -> {
+            long copies = 0;
+            long checksum = 0;
+            OpusFrames.Cursor cursor = opusFrames.cursor();
+            for (long i = 0; i < frames; i++) {
+                cursor = rewindIfDone(opusFrames, cursor);
+                ByteBuffer packet = cursor.next();
+                int length = packet.remaining();
+                packet.get(frameBuffer, 0, length);
+                buffer.clear();
+                frame.store(frameBuffer, 0, length);
+                ByteBuffer sent = buffer.flip();
+                copies++;
+                checksum += sent.array()[sent.arrayOffset()];
+            }
+            return new long[]{copies, checksum};
+        });
+    }
+
+    private static Result packetView(OpusFrames opusFrames, long frames) {
+        return measure(() -> {
+            long checksum = 0;
+            OpusFrames.Cursor cursor = opusFrames.cursor();
+            for (long i = 0; i < frames; i++) {
+                cursor = rewindIfDone(opusFrames, cursor);
+                ByteBuffer sent = cursor.next();
+                checksum += sent.array()[sent.arrayOffset() + sent.position()];
+            }
+            return new long[]{0, checksum};
+        });
+    }
+
+    private static OpusFrames.Cursor rewindIfDone(OpusFrames opusFrames, OpusFrames.Cursor cursor) {
+        return cursor.hasNext() ? cursor : opusFrames.cursor();
+    }
+
+    private static Result measure(Supplier<long[]> run) {
+        ThreadMXBean threadMXBean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+        long allocatedBefore = threadMXBean.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        long[] copiesAndChecksum = run.get();
+        long elapsed = System.nanoTime() - start;
+        long allocated = threadMXBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+        return new Result(copiesAndChecksum[0], allocated, elapsed);
+    }
+
+    private static void report(String name, int seconds, Result result) {
+        System.out.printf("%-20s %6.1f copies/s of audio, %8.1f bytes allocated/s of audio, %6.1f ns/frame%n",
+                name,
+                (double) result.copies / seconds,
+                (double) result.allocatedBytes / seconds,
+                (double) result.elapsedNanos / ((long) seconds * FRAMES_PER_SECOND));
+    }
+
+    /**
+     * Ogg Opus stream with the two header packets and {@code packets} fullband 20 ms packets, one page per packet.
+     */
+    private static byte[] syntheticClip(int packets) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writePage(out, 0, Arrays.copyOf("OpusHead".getBytes(StandardCharsets.US_ASCII), 19));
+        writePage(out, 1, Arrays.copyOf("OpusTags".getBytes(StandardCharsets.US_ASCII), 16));
+        byte[] packet = new byte[SYNTHETIC_PACKET_SIZE];
+        for (int i = 0; i < packets; i++) {
+            packet[0] = CELT_FULLBAND_20_MS;
+            packet[1] = (byte) i;
+            writePage(out, i + 2, packet);
+        }
+        return out.toByteArray();
+    }
+
+    private static void writePage(ByteArrayOutputStream out, int sequence, byte[] packet) {
+        ByteBuffer header = ByteBuffer.allocate(27).order(ByteOrder.LITTLE_ENDIAN);
+        header.put("OggS".getBytes(StandardCharsets.US_ASCII)).put((byte) 0).put((byte) 0)
+                .putLong((long) sequence * 960).putInt(1).putInt(sequence).putInt(0).put((byte) 1);
+        out.writeBytes(header.array());
+        out.write(packet.length);
+        out.writeBytes(packet);
+    }
+
+    private static final class Result {
+
+        private final long copies;
+        private final long allocatedBytes;
+        private final long elapsedNanos;
+
+        private Result(long copies, long allocatedBytes, long elapsedNanos) {
+            this.copies = copies;
+            this.allocatedBytes = allocatedBytes;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+    }
+
+}
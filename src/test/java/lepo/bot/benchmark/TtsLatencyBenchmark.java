@@ -0,0 +1,166 @@
+package lepo.bot.benchmark;
+
+import com.sedmelluq.discord.lavaplayer.player.AudioLoadResultHandler;
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayer;
+import com.sedmelluq.discord.lavaplayer.player.AudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.player.DefaultAudioPlayerManager;
+import com.sedmelluq.discord.lavaplayer.source.local.LocalAudioSourceManager;
+import com.sedmelluq.discord.lavaplayer.tools.FriendlyException;
+import com.sedmelluq.discord.lavaplayer.track.AudioPlaylist;
+import com.sedmelluq.discord.lavaplayer.track.AudioTrack;
+import lepo.bot.audio.tts.CachedTtsSourceManager;
+import lepo.bot.audio.tts.FloweryTtsClient;
+import lepo.bot.audio.tts.TtsDiskCache;
+import lepo.bot.audio.tts.TtsProviderChain;
+import lepo.bot.audio.tts.TtsRequest;
+
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.IntFunction;
+
+/**
+ * Time from a TTS request to the first audio frame, through the same cache and provider chain the bot uses,
+ * against two local {@link TtsStandInServer}s: a primary one with the given latency and failure rate and
+ * a reliable fallback twice as slow.
+ * <pre>java -cp target/test-classes:target/classes:&lt;dependencies&gt; lepo.bot.benchmark.TtsLatencyBenchmark clip.opus [requests] [latencyMs] [failureRate] [timeoutMs]</pre>
+ *
+ * <ul>
+ *     <li>/tts: a different phrase every time, so every request reaches a provider</li>
+ *     <li>greetings: a handful of member names, so most requests are served by the cache</li>
+ * </ul>
+ */
+public final class TtsLatencyBenchmark {
+
+    private static final String VOICE = "benchmark";
+    private static final int GREETED_MEMBERS = 8;
+    private static final long FIRST_FRAME_TIMEOUT_MS = 30_000;
+
+    private TtsLatencyBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.out.println("Usage: TtsLatencyBenchmark clip.opus [requests] [latencyMs] [failureRate] [timeoutMs]");
+            return;
+        }
+        byte[] audio = Files.readAllBytes(Path.of(args[0]));
+        int requests = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        long latencyMs = args.length > 2 ? Long.parseLong(args[2]) : 300;
+        double failureRate = args.length > 3 ? Double.parseDouble(args[3]) : 0.05;
+        long timeoutMs = args.length > 4 ? Long.parseLong(args[4]) : 1000;
+        Path cacheDirectory = Files.createTempDirectory("tts-benchmark");
+        try (TtsStandInServer primary = TtsStandInServer.start(0, audio, latencyMs, latencyMs / 2, failureRate);
+             TtsStandInServer fallback = TtsStandInServer.start(0, audio, latencyMs * 2, latencyMs / 2, 0)) {
+            TtsProviderChain chain = new TtsProviderChain(List.of(
+                    new FloweryTtsClient(primary.url(), Duration.ofMillis(timeoutMs)),
+                    new FloweryTtsClient(fallback.url(), Duration.ofMillis(timeoutMs * 2))), Duration.ofMillis(timeoutMs));
+            AudioPlayerManager audioPlayerManager = new DefaultAudioPlayerManager();
+            LocalAudioSourceManager localAudioSourceManager = new LocalAudioSourceManager();
+            CachedTtsSourceManager cachedTtsSourceManager = new CachedTtsSourceManager(VOICE, localAudioSourceManager,
+                    new TtsDiskCache(cacheDirectory, 64L * 1024 * 1024), chain, Duration.ofMillis(timeoutMs));
+            audioPlayerManager.registerSourceManager(cachedTtsSourceManager);
+            audioPlayerManager.registerSourceManager(localAudioSourceManager);
+            System.out.printf("%d requests per scenario, primary %d+%d ms with %.0f%% failures, fallback %d+%d ms, timeout %d ms%n",
+                    requests, latencyMs, latencyMs / 2, failureRate * 100, latencyMs * 2, latencyMs / 2, timeoutMs);
+            run("/tts", audioPlayerManager, requests, i -> "frase di prova numero " + i);
+            run("greetings", audioPlayerManager, requests, i -> "membro " + ThreadLocalRandom.current().nextInt(GREETED_MEMBERS));
+            System.out.printf("Requests served: primary %d, fallback %d%n", primary.getRequestCount(), fallback.getRequestCount());
+            chain.shutdown();
+            audioPlayerManager.shutdown();
+        } finally {
+            deleteDirectory(cacheDirectory);
+        }
+    }
+
+    private static void run(String scenario, AudioPlayerManager audioPlayerManager, int requests, IntFunction<String> phrase) {
+        long[] nanos = new long[requests];
+        int measured = 0;
+        int failed = 0;
+        for (int i = 0; i < requests; i++) {
+            String identifier = TtsRequest.TTS_PREFIX + URLEncoder.encode(phrase.apply(i), StandardCharsets.UTF_8).replace("+", "%20");
+            try {
+                nanos[measured++] = timeToFirstFrame(audioPlayerManager, identifier);
+            } catch (Exception e) {
+                measured--;
+                failed++;
+            }
+        }
+        long[] sorted = Arrays.copyOf(nanos, measured);
+        Arrays.sort(sorted);
+        System.out.printf("%-10s p50 %8.1f ms   p99 %8.1f ms   max %8.1f ms   failed %d%n", scenario,
+                percentile(sorted, 0.50), percentile(sorted, 0.99), percentile(sorted, 1.0), failed);
+    }
+
+    /**
+     * Loads the identifier, plays it on a fresh player and polls until the first frame is produced.
+     */
+    private static long timeToFirstFrame(AudioPlayerManager audioPlayerManager, String identifier) throws Exception {
+        AudioPlayer audioPlayer = audioPlayerManager.createPlayer();
+        long start = System.nanoTime();
+        try {
+            CompletableFuture<AudioTrack> loaded = new CompletableFuture<>();
+            audioPlayerManager.loadItem(identifier, new AudioLoadResultHandler() {
+                @Override
+                public void trackLoaded(AudioTrack track) {
+                    loaded.complete(track);
+                }
+
+                @Override
+                public void playlistLoaded(AudioPlaylist playlist) {
+                    loaded.completeExceptionally(new IllegalStateException("playlist"));
+                }
+
+                @Override
+                public void noMatches() {
+                    loaded.completeExceptionally(new IllegalStateException("no matches"));
+                }
+
+                @Override
+                public void loadFailed(FriendlyException exception) {
+                    loaded.completeExceptionally(exception);
+                }
+            });
+            audioPlayer.playTrack(loaded.get(FIRST_FRAME_TIMEOUT_MS, TimeUnit.MILLISECONDS));
+            while (System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(FIRST_FRAME_TIMEOUT_MS)) {
+                try {
+                    if (audioPlayer.provide(5, TimeUnit.MILLISECONDS) != null) {
+                        return System.nanoTime() - start;
+                    }
+                } catch (TimeoutException e) {
+                    // no frame yet
+                }
+            }
+            throw new TimeoutException("no frame for " + identifier);
+        } finally {
+            audioPlayer.destroy();
+        }
+    }
+
+    private static double percentile(long[] sorted, double quantile) {
+        if (sorted.length == 0) {
+            return Double.NaN;
+        }
+        int index = Math.max(0, (int) Math.ceil(quantile * sorted.length) - 1);
+        return sorted[index] / 1_000_000.0;
+    }
+
+    private static void deleteDirectory(Path directory) throws IOException {
+        try (var files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.deleteIfExists(file);
+            }
+        }
+        Files.deleteIfExists(directory);
+    }
+
+}
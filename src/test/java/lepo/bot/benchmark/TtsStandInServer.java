@@ -0,0 +1,113 @@
+package lepo.bot.benchmark;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local stand-in of the Flowery TTS endpoint: answers {@code /v1/tts} with the same canned Ogg Opus clip
+ * after a configurable latency, and fails a configurable share of the requests with a 503.
+ * Point {@code bot.tts.providers} at it to try the bot without the live service:
+ * <pre>java -cp target/test-classes lepo.bot.benchmark.TtsStandInServer clip.opus [port] [latencyMs] [jitterMs] [failureRate]</pre>
+ */
+public final class TtsStandInServer implements AutoCloseable {
+
+    public static final String PATH = "/v1/tts";
+
+    private final HttpServer httpServer;
+    private final byte[] audio;
+    private final long latencyMs;
+    private final long jitterMs;
+    private final double failureRate;
+    private final AtomicLong requests;
+
+    private TtsStandInServer(HttpServer httpServer, byte[] audio, long latencyMs, long jitterMs, double failureRate) {
+        this.httpServer = httpServer;
+        this.audio = audio;
+        this.latencyMs = latencyMs;
+        this.jitterMs = jitterMs;
+        this.failureRate = failureRate;
+        this.requests = new AtomicLong();
+    }
+
+    /**
+     * @param port        the port to listen on, 0 for any free port
+     * @param audio       the clip served for every phrase
+     * @param latencyMs   delay before answering
+     * @param jitterMs    random extra delay, up to this value
+     * @param failureRate share of the requests answered with a 503, from 0 to 1
+     * @return the running server
+     * @throws IOException if the port cannot be bound
+     */
+    public static TtsStandInServer start(int port, byte[] audio, long latencyMs, long jitterMs, double failureRate) throws IOException {
+        HttpServer httpServer = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+        TtsStandInServer server = new TtsStandInServer(httpServer, audio, latencyMs, jitterMs, failureRate);
+        httpServer.createContext(PATH, server::handle);
+        httpServer.setExecutor(Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "tts-stand-in");
+            thread.setDaemon(true);
+            return thread;
+        }));
+        httpServer.start();
+        return server;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: TtsStandInServer clip.opus [port] [latencyMs] [jitterMs] [failureRate]");
+            return;
+        }
+        byte[] audio = Files.readAllBytes(Path.of(args[0]));
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 8089;
+        long latencyMs = args.length > 2 ? Long.parseLong(args[2]) : 300;
+        long jitterMs = args.length > 3 ? Long.parseLong(args[3]) : 200;
+        double failureRate = args.length > 4 ? Double.parseDouble(args[4]) : 0.0;
+        TtsStandInServer server = start(port, audio, latencyMs, jitterMs, failureRate);
+        System.out.printf("TTS stand-in listening on %s (latency %d+%d ms, failure rate %.2f)%n", server.url(), latencyMs, jitterMs, failureRate);
+    }
+
+    /**
+     * @return the endpoint to configure as a TTS provider
+     */
+    public String url() {
+        return "http://127.0.0.1:" + httpServer.getAddress().getPort() + PATH;
+    }
+
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    @Override
+    public void close() {
+        httpServer.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        try {
+            Thread.sleep(latencyMs + (jitterMs > 0 ? ThreadLocalRandom.current().nextLong(jitterMs + 1) : 0));
+            if (ThreadLocalRandom.current().nextDouble() < failureRate) {
+                exchange.sendResponseHeaders(503, -1);
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", "audio/ogg");
+            exchange.sendResponseHeaders(200, audio.length);
+            try (OutputStream body = exchange.getResponseBody()) {
+                body.write(audio);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+
+}